@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +36,8 @@ public class BatchGrader implements Closeable {
     private final Path reportFile;
     private final Path resultsFile;
     private final int parallelism;
+    private final int batchSize;
+    private boolean resourceColumns = false;
 
     private final Grader grader = new Grader();
 
@@ -67,12 +70,41 @@ public class BatchGrader implements Closeable {
      * corresponding output is not written.
      */
     public BatchGrader(Path reportFile, Path resultsFile, int parallelism) {
+        this(reportFile, resultsFile, parallelism, 1);
+    }
+
+    /**
+     * Create a new batch grader as described in
+     * {@link #BatchGrader(Path, Path, int)}, which groups the submissions into
+     * batches of (at most) <code>batchSize</code> submissions. The tests for
+     * all submissions in a batch are run using a single call to the test
+     * runner (see {@link Grader#gradeAll(Task, List)}), which reduces the
+     * overhead per submission. Each worker thread grades one batch at a time.
+     */
+    public BatchGrader(Path reportFile, Path resultsFile, int parallelism, int batchSize) {
         if (parallelism <= 0) {
             throw new IllegalArgumentException("parallelism must be positive");
         }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
         this.reportFile = reportFile;
         this.resultsFile = resultsFile;
         this.parallelism = parallelism;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Enables or disables additional columns in the results file with the
+     * wall time, CPU time, and allocated memory of the tests of each task
+     * (see {@link TsvResultWriter#write(Map, Path, boolean)}), as well as
+     * the same information for each failed test in the report (see
+     * {@link ReportWriter#write(Map, Path, boolean)}). Disabled by default,
+     * since these values differ from run to run.
+     */
+    public BatchGrader resourceColumns(boolean resourceColumns) {
+        this.resourceColumns = resourceColumns;
+        return this;
     }
 
     /**
@@ -95,36 +127,46 @@ public class BatchGrader implements Closeable {
 
         var left = new AtomicInteger(submissions.size());
         try (var pool = new ForkJoinPool(parallelism)) {
-            for (var subm : submissions) {
+            for (int start = 0; start < submissions.size(); start += batchSize) {
+                var batch = submissions.subList(start,
+                        Math.min(start + batchSize, submissions.size()));
+                var names = join(", ", batch.stream().map(Submission::name).toList());
                 pool.submit(() -> {
-                    logger.info("Grading {}", subm.name);
+                    logger.info("Grading {}", names);
                     try {
                         for (var task : tasks) {
                             if (tasks.size() > 1) {
                                 logger.debug("Running task with tests {} for {}",
-                                        join(", ", task.testClassNames()), subm.name);
+                                        join(", ", task.testClassNames()), names);
                             }
 
-                            var sources = Files.isDirectory(subm.srcDir)
-                                    ? InMemSource.fromDirectory(subm.srcDir, null)
-                                    : List.<InMemSource>of();
-                            var res = grader.grade(task, sources);
-                            results.get(task).put(subm, res);
+                            var sources = new ArrayList<List<InMemSource>>();
+                            for (var subm : batch) {
+                                sources.add(Files.isDirectory(subm.srcDir)
+                                        ? InMemSource.fromDirectory(subm.srcDir, null)
+                                        : List.of());
+                            }
+                            var res = batch.size() == 1
+                                    ? List.of(grader.grade(task, sources.get(0)))
+                                    : grader.gradeAll(task, sources);
+                            for (int i = 0; i < batch.size(); i++) {
+                                results.get(task).put(batch.get(i), res.get(i));
+                            }
                         }
                         logger.info("Finished grading {}, {} submissions left",
-                                subm.name, left.decrementAndGet());
+                                names, left.addAndGet(-batch.size()));
                     } catch (Throwable t) {
-                        logger.error("Error while grading {}", subm.name, t);
+                        logger.error("Error while grading {}", names, t);
                     }
                 });
             }
         }
 
         if (reportFile != null) {
-            ReportWriter.write(results, reportFile);
+            ReportWriter.write(results, reportFile, resourceColumns);
         }
         if (resultsFile != null) {
-            TsvResultWriter.write(results, resultsFile);
+            TsvResultWriter.write(results, resultsFile, resourceColumns);
         }
     }
 
@@ -2,7 +2,11 @@ package ch.trick17.jtt.grader;
 
 import ch.trick17.jtt.memcompile.*;
 import ch.trick17.jtt.sandbox.Whitelist;
+import ch.trick17.jtt.testrunner.AdaptiveTimeouts;
+import ch.trick17.jtt.testrunner.RepetitionPolicy;
+import ch.trick17.jtt.testrunner.ResourceUsage;
 import ch.trick17.jtt.testrunner.TestMethod;
+import ch.trick17.jtt.testrunner.TestDurationHistory;
 import ch.trick17.jtt.testrunner.TestResult;
 import ch.trick17.jtt.testrunner.TestRunner;
 
@@ -49,6 +53,49 @@ public class Grader implements Closeable {
 
     public Result grade(Task task, List<InMemSource> sources)
             throws IOException {
+        var compilation = compile(task, sources);
+        List<TestResult> testResults = null;
+        if (compilation.testRunnerTask() != null) {
+            var result = testRunner.run(compilation.testRunnerTask());
+            if (task.durationHistory() != null) {
+                task.durationHistory().record(result);
+            }
+            testResults = result.testResults();
+        }
+        return compilation.result(testResults);
+    }
+
+    /**
+     * Grades multiple submissions (given as lists of sources) for the same
+     * task, like {@link #grade(Task, List)}, but runs the tests for all of
+     * them in a single batch (see {@link TestRunner#runAll(List)}). The
+     * results are returned in the same order as the submissions.
+     */
+    public List<Result> gradeAll(Task task, List<List<InMemSource>> submissions)
+            throws IOException {
+        var compilations = new ArrayList<Compilation>();
+        var testRunnerTasks = new ArrayList<TestRunner.Task>();
+        for (var sources : submissions) {
+            var compilation = compile(task, sources);
+            compilations.add(compilation);
+            if (compilation.testRunnerTask() != null) {
+                testRunnerTasks.add(compilation.testRunnerTask());
+            }
+        }
+        var results = testRunner.runAll(testRunnerTasks);
+        if (task.durationHistory() != null) {
+            results.forEach(task.durationHistory()::record);
+        }
+        var testResults = results.iterator();
+        return compilations.stream()
+                .map(c -> c.result(c.testRunnerTask() != null
+                        ? testResults.next().testResults()
+                        : null))
+                .toList();
+    }
+
+    private Compilation compile(Task task, List<InMemSource> sources)
+            throws IOException {
         for (var source : task.givenSources()) {
             sources.removeIf(s -> s.getPath().equals(source.getPath()));
             sources.add(source);
@@ -71,20 +118,16 @@ public class Grader implements Closeable {
         var testCompileResult = InMemCompilation.compile(task.compiler(),
                 task.testSources(), new ClassPath(compileResult.output(), fileClassPath));
 
-        // run tests
         var compiled = !testCompileResult.output().isEmpty();
-        List<TestResult> testResults = null;
-        if (compiled) {
-            testResults = runTests(task, compileResult.output(),
-                    testCompileResult.output());
-        }
-        return new Result(compileResult.errors(), testCompileResult.errors(),
-                compiled, testResults);
+        var testRunnerTask = compiled
+                ? testRunnerTask(task, compileResult.output(), testCompileResult.output())
+                : null;
+        return new Compilation(compileResult, testCompileResult, testRunnerTask);
     }
 
-    private List<TestResult> runTests(Task task,
-                                 List<InMemClassFile> classes,
-                                 List<InMemClassFile> testClasses) throws IOException {
+    private static TestRunner.Task testRunnerTask(Task task,
+                                                  List<InMemClassFile> classes,
+                                                  List<InMemClassFile> testClasses) {
         ClassPath sandboxedCode;
         ClassPath supportCode;
         if (task.restrictTests) {
@@ -95,12 +138,30 @@ public class Grader implements Closeable {
             supportCode = ClassPath.fromMemory(testClasses)
                     .withFiles(task.dependencies()).withCurrent();
         }
-        var testRunnerTask = new TestRunner.Task(task.testClassNames(),
+        var repTimeouts = task.durationHistory() != null
+                ? task.adaptiveTimeouts().repTimeouts(task.durationHistory(), task.testClassNames())
+                : null;
+        return new TestRunner.Task(task.testClassNames(),
                 sandboxedCode, supportCode,
                 task.repetitions(), task.repTimeout(), task.testTimeout(),
-                task.permittedCalls(), task.testVmArgs());
+                task.permittedCalls(), task.testVmArgs(), task.testParallelism(),
+                task.concurrentRepetitions(), task.repetitionPolicy(), repTimeouts);
+    }
+
+    /**
+     * The outcome of compiling a submission and its tests. If the tests
+     * compiled, <code>testRunnerTask</code> is the task that runs them,
+     * otherwise it is <code>null</code>.
+     */
+    private record Compilation(
+            InMemCompilation.Result compileResult,
+            InMemCompilation.Result testCompileResult,
+            TestRunner.Task testRunnerTask) {
 
-        return testRunner.run(testRunnerTask).testResults();
+        Result result(List<TestResult> testResults) {
+            return new Result(compileResult.errors(), testCompileResult.errors(),
+                    testRunnerTask != null, testResults);
+        }
     }
 
     @Override
@@ -121,6 +182,11 @@ public class Grader implements Closeable {
         private boolean restrictTests = false;
         private List<Path> dependencies = emptyList();
         private List<String> testVmArgs = DEFAULT_TEST_VM_ARGS;
+        private int testParallelism = 1;
+        private boolean concurrentRepetitions = false;
+        private RepetitionPolicy repetitionPolicy = RepetitionPolicy.FIXED;
+        private TestDurationHistory durationHistory = null;
+        private AdaptiveTimeouts adaptiveTimeouts = null;
 
         public static Task fromString(String testClassCode) {
             return new Task(List.of(InMemSource.fromString(testClassCode)), emptyList());
@@ -294,6 +360,66 @@ public class Grader implements Closeable {
             return this;
         }
 
+        /**
+         * Defines the maximum number of tests that are executed in parallel
+         * (each in its own sandbox), which can speed up tasks with many tests
+         * considerably if the machine has multiple CPUs. Parallel tests only
+         * use CPUs that are not busy with other tasks, so they do not risk
+         * exceeding their timeouts. The default is 1, i.e., the tests are
+         * executed one after the other.
+         */
+        public Task testParallelism(int testParallelism) {
+            if (testParallelism < 1) {
+                throw new IllegalArgumentException();
+            }
+            this.testParallelism = testParallelism;
+            return this;
+        }
+
+        /**
+         * Defines whether the repetitions of a test are executed concurrently
+         * (each in its own sandbox), as far as there are CPUs that are not
+         * busy with other tasks. This way, a test that runs into the
+         * repetition timeout (e.g., because of an infinite loop) takes much
+         * less time. The test timeout is then checked after each group of
+         * concurrent repetitions, so all repetitions of a group are made,
+         * even if the timeout expires in between. The default is
+         * <code>false</code>.
+         */
+        public Task concurrentRepetitions(boolean concurrentRepetitions) {
+            this.concurrentRepetitions = concurrentRepetitions;
+            return this;
+        }
+
+        /**
+         * Sets the policy that decides how many times each test is actually
+         * repeated, based on the outcomes of the repetitions so far. With
+         * {@link RepetitionPolicy#ADAPTIVE}, stable tests are repeated less
+         * and suspicious ones more often than defined by
+         * {@link #repetitions(int)}. The default is
+         * {@link RepetitionPolicy#FIXED}.
+         */
+        public Task repetitionPolicy(RepetitionPolicy repetitionPolicy) {
+            this.repetitionPolicy = Objects.requireNonNull(repetitionPolicy);
+            return this;
+        }
+
+        /**
+         * Enables per-test repetition timeouts, which are derived from the
+         * durations recorded in the given history (see
+         * {@link AdaptiveTimeouts}). Tests with too few recorded durations
+         * use the repetition timeout of the task. The durations of all tests
+         * that pass are added to the history, so typically, the reference
+         * solution is graded first to fill it. The history is not saved
+         * automatically; call {@link TestDurationHistory#save()} to persist
+         * it for later runs.
+         */
+        public Task adaptiveTimeouts(TestDurationHistory history, AdaptiveTimeouts timeouts) {
+            this.durationHistory = Objects.requireNonNull(history);
+            this.adaptiveTimeouts = Objects.requireNonNull(timeouts);
+            return this;
+        }
+
         public List<String> testClassNames() {
             return testSources.stream()
                     .map(s -> s.getPath().replace('/', '.').replaceAll("\\.java$", ""))
@@ -339,6 +465,26 @@ public class Grader implements Closeable {
         public List<String> testVmArgs() {
             return testVmArgs;
         }
+
+        public int testParallelism() {
+            return testParallelism;
+        }
+
+        public boolean concurrentRepetitions() {
+            return concurrentRepetitions;
+        }
+
+        public RepetitionPolicy repetitionPolicy() {
+            return repetitionPolicy;
+        }
+
+        public TestDurationHistory durationHistory() {
+            return durationHistory;
+        }
+
+        public AdaptiveTimeouts adaptiveTimeouts() {
+            return adaptiveTimeouts;
+        }
     }
 
     public record Result(
@@ -401,6 +547,18 @@ public class Grader implements Closeable {
                     .toList();
         }
 
+        /**
+         * Returns the resources used by all tests that were executed for the
+         * submission, including all repetitions. If no tests could be
+         * executed, returns {@link ResourceUsage#NONE}.
+         */
+        public ResourceUsage resourceUsage() {
+            return ResourceUsage.total(Stream.ofNullable(testResults)
+                    .flatMap(List::stream)
+                    .map(TestResult::resourceUsage)
+                    .toList());
+        }
+
         public TestResult testResultFor(String testName) {
             return testResults.stream()
                     .filter(r -> r.method().name().equals(testName))
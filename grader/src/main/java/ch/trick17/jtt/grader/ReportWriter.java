@@ -4,6 +4,8 @@ import ch.trick17.jtt.grader.BatchGrader.Submission;
 import ch.trick17.jtt.grader.Grader.Result;
 import ch.trick17.jtt.grader.Grader.Task;
 import ch.trick17.jtt.testrunner.ExceptionDescription;
+import ch.trick17.jtt.testrunner.ResourceUsage;
+import ch.trick17.jtt.testrunner.TestResult;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -14,6 +16,7 @@ import static java.lang.String.join;
 import static java.lang.String.valueOf;
 import static java.nio.file.Files.newBufferedWriter;
 import static java.util.Comparator.comparing;
+import static java.util.Locale.ROOT;
 
 public class ReportWriter {
 
@@ -21,6 +24,16 @@ public class ReportWriter {
 
     public static void write(Map<Task, Map<Submission, Result>> results,
                              Path file) throws IOException {
+        write(results, file, false);
+    }
+
+    /**
+     * Writes the report, optionally with the resources used by each failed
+     * test (see {@link TestResult#resourceUsage()}). Values that are not
+     * available (e.g., the CPU time of tests that timed out) are left out.
+     */
+    public static void write(Map<Task, Map<Submission, Result>> results,
+                             Path file, boolean resourceUsage) throws IOException {
         var submissions = results.values().iterator().next().keySet().stream()
                 .sorted(comparing(Submission::name))
                 .toList();
@@ -28,7 +41,7 @@ public class ReportWriter {
             for (var subm : submissions) {
                 var report = new StringBuilder();
                 for (var task : results.keySet()) {
-                    var result = format(results.get(task).get(subm));
+                    var result = format(results.get(task).get(subm), resourceUsage);
                     if (!result.isEmpty()) {
                         report.append(indent(1)).append(join(", ", task.testClassNames())).append("\n");
                         report.append(result);
@@ -43,7 +56,7 @@ public class ReportWriter {
         }
     }
 
-    private static CharSequence format(Result result) {
+    private static CharSequence format(Result result, boolean resourceUsage) {
         var formatted = new StringBuilder();
         if (!result.compileErrors().isEmpty()) {
             formatted.append(indent(2)).append("Compile errors:").append('\n');
@@ -77,6 +90,9 @@ public class ReportWriter {
                     if (!testResult.illegalOps().isEmpty()) {
                         properties.add("illegal operations (" + join(", ", testResult.illegalOps()) + ")");
                     }
+                    if (resourceUsage) {
+                        properties.add(format(testResult.resourceUsage()));
+                    }
                     formatted.append(indent(3)).append(testResult.method().toString())
                             .append(": ").append(join(", ", properties)).append('\n');
                     for (var exception : testResult.exceptions()) {
@@ -89,6 +105,18 @@ public class ReportWriter {
         return formatted;
     }
 
+    private static String format(ResourceUsage usage) {
+        var parts = new ArrayList<String>();
+        parts.add(usage.wallTime().toMillis() + " ms wall");
+        if (usage.cpuTime().isPositive()) {
+            parts.add(usage.cpuTime().toMillis() + " ms CPU");
+        }
+        if (usage.allocatedBytes() > 0) {
+            parts.add(String.format(ROOT, "%.1f MB allocated", usage.allocatedBytes() / 1e6));
+        }
+        return join(", ", parts);
+    }
+
     private static String formatMsg(ExceptionDescription exception) {
         if (exception.className().equals("java.lang.Error") &&
             exception.message().startsWith("Unresolved compilation problem")) {
@@ -9,33 +9,54 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Stream;
 
+import static java.lang.String.format;
 import static java.lang.String.join;
 import static java.nio.file.Files.newBufferedWriter;
 import static java.util.Comparator.comparing;
 import static java.util.EnumSet.noneOf;
+import static java.util.Locale.ROOT;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.*;
 
 public class TsvResultWriter {
 
+    private static final List<String> RESOURCE_COLUMNS =
+            List.of("Wall time (ms)", "CPU time (ms)", "Allocated (MB)");
+
     public static void write(Map<Task, Map<Submission, Result>> results, Path file)
             throws IOException {
+        write(results, file, false);
+    }
+
+    /**
+     * Writes the results to a TSV file, optionally with additional columns
+     * for the resources used by all tests of a task together (see
+     * {@link Result#resourceUsage()}), which follow the columns of the
+     * respective task.
+     */
+    public static void write(Map<Task, Map<Submission, Result>> results, Path file,
+                             boolean resourceUsage) throws IOException {
         var single = results.size() == 1;
         var columnGroups = results.values().stream()
                 .collect(toMap(identity(), map -> columns(map.values())));
+        var extraColumns = resourceUsage ? RESOURCE_COLUMNS : List.<String>of();
         try (var out = newBufferedWriter(file)) {
             // Header
             out.append("Name");
             if (!single) { // two-row header
                 out.append(results.entrySet().stream()
                         .map(e -> "\t\t" + join(", ", e.getKey().testClassNames())
-                                + "\t".repeat(columnGroups.get(e.getValue()).size() - 1))
+                                + "\t".repeat(columnGroups.get(e.getValue()).size()
+                                               + extraColumns.size() - 1))
                         .collect(joining()));
                 out.append("\n");
             }
             for (var r : results.values()) {
                 out.append(single ? "\t" : "\t\t");
                 out.append(join("\t", columnGroups.get(r)));
+                for (var column : extraColumns) {
+                    out.append("\t").append(column);
+                }
             }
             out.append("\n");
 
@@ -52,6 +73,12 @@ public class TsvResultWriter {
                     out.append(columns.stream()
                             .map(c -> fulfilled.contains(c) ? "1" : "0")
                             .collect(joining("\t")));
+                    if (resourceUsage) {
+                        var usage = taskResult.get(s).resourceUsage();
+                        out.append(format(ROOT, "\t%d\t%d\t%.1f",
+                                usage.wallTime().toMillis(), usage.cpuTime().toMillis(),
+                                usage.allocatedBytes() / 1e6));
+                    }
                 }
                 out.append("\n");
             }
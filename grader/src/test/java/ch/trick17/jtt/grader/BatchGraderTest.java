@@ -20,6 +20,7 @@ import static ch.trick17.jtt.memcompile.Compiler.JAVAC;
 import static ch.trick17.jtt.sandbox.Whitelist.DEFAULT_WHITELIST_DEF;
 import static java.nio.file.Files.readString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class BatchGraderTest {
 
@@ -109,6 +110,48 @@ public class BatchGraderTest {
         assertEquals(expected, readString(RESULTS_FILE));
     }
 
+    @Test
+    void batches() throws IOException {
+        var tasks = List.of(
+                Task.fromClassName("AddTest", TEST_SRC_DIR),
+                Task.fromClassName("multiply.MultiplyTest", TEST_SRC_DIR));
+        var submissions = WITH_ECLIPSE_STRUCTURE.stream()
+                .filter(s -> List.of("correct", "fails-test", "compile-error").contains(s.name()))
+                .toList();
+        try (var batchGrader = new BatchGrader(null, RESULTS_FILE, 1, 2)) {
+            batchGrader.grade(tasks, submissions);
+        }
+        var expected = withTabs("""
+                Name           > AddTest   >               >     >     > multiply.MultiplyTest  >               >
+                               > compiled  compile errors  add1  add2  > compiled               compile errors  multiply1  multiply2
+                compile-error  > 1         1               0     0     > 1                      1               0          0
+                correct        > 1         0               1     1     > 1                      0               1          1
+                fails-test     > 1         0               1     0     > 1                      0               1          0
+                """);
+        assertEquals(expected, readString(RESULTS_FILE));
+    }
+
+    @Test
+    void resourceColumns() throws IOException {
+        var task = Task.fromClassName("AddTest", TEST_SRC_DIR).compiler(ECLIPSE);
+        var submissions = WITH_ECLIPSE_STRUCTURE.stream()
+                .filter(s -> List.of("correct", "fails-test", "compile-error").contains(s.name()))
+                .toList();
+        try (var batchGrader = new BatchGrader(null, RESULTS_FILE).resourceColumns(true)) {
+            batchGrader.grade(task, submissions);
+        }
+        var lines = readString(RESULTS_FILE).lines().toList();
+        assertEquals(withTabs("Name  compiled  compile errors  add1  add2  ") +
+                     "Wall time (ms)\tCPU time (ms)\tAllocated (MB)", lines.get(0));
+        for (var line : lines.subList(1, lines.size())) {
+            var cells = line.split("\t");
+            assertEquals(8, cells.length, line);
+            assertTrue(cells[5].matches("\\d+"), line);
+            assertTrue(cells[6].matches("\\d+"), line);
+            assertTrue(cells[7].matches("\\d+\\.\\d"), line);
+        }
+    }
+
     @Test
     void packageEclipseCompiler() throws IOException {
         var task = Task.fromClassName("multiply.MultiplyTest", TEST_SRC_DIR).compiler(ECLIPSE);
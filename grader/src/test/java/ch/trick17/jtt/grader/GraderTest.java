@@ -2,6 +2,8 @@ package ch.trick17.jtt.grader;
 
 import ch.trick17.jtt.grader.Grader.Task;
 import ch.trick17.jtt.memcompile.InMemSource;
+import ch.trick17.jtt.testrunner.AdaptiveTimeouts;
+import ch.trick17.jtt.testrunner.TestDurationHistory;
 import ch.trick17.jtt.testrunner.TestMethod;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -192,4 +194,23 @@ public class GraderTest {
         assertEquals(emptyList(), result.testCompileErrors());
         assertFalse(result.testResultFor("add(int, int)").passed());
     }
+
+    @Test
+    void adaptiveTimeouts() throws IOException {
+        var history = new TestDurationHistory();
+        var task = Task.fromClassName("AddTest", TEST_SRC_DIR)
+                .adaptiveTimeouts(history, AdaptiveTimeouts.DEFAULT);
+        var add1 = new TestMethod("AddTest", "add1");
+        var add2 = new TestMethod("AddTest", "add2");
+
+        grader.grade(task, correct);
+        assertEquals(task.repetitions(), history.samples(add1));
+        assertEquals(task.repetitions(), history.samples(add2));
+
+        // only passed tests are recorded
+        var result = grader.grade(task, failsTest);
+        assertFalse(result.testResultFor("add2").passed());
+        assertEquals(2 * task.repetitions(), history.samples(add1));
+        assertEquals(task.repetitions(), history.samples(add2));
+    }
 }
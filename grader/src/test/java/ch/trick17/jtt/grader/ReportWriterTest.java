@@ -0,0 +1,81 @@
+package ch.trick17.jtt.grader;
+
+import ch.trick17.jtt.grader.BatchGrader.Submission;
+import ch.trick17.jtt.grader.Grader.Result;
+import ch.trick17.jtt.grader.Grader.Task;
+import ch.trick17.jtt.testrunner.RepetitionPolicy.Decision;
+import ch.trick17.jtt.testrunner.ResourceUsage;
+import ch.trick17.jtt.testrunner.TestMethod;
+import ch.trick17.jtt.testrunner.TestResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.nio.file.Files.readString;
+import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ReportWriterTest {
+
+    static final Path REPORT_FILE = Path.of("report.txt");
+
+    static final Map<Task, Map<Submission, Result>> RESULTS = Map.of(
+            Task.fromString("class AddTest {}"),
+            Map.of(new Submission("fails-test", Path.of("fails-test")), new Result(
+                    emptyList(), emptyList(), true, List.of(
+                            failed("add1", false, new ResourceUsage(
+                                    Duration.ofMillis(1500), Duration.ofMillis(1200), 12_345_678)),
+                            failed("add2", true, new ResourceUsage(
+                                    Duration.ofMillis(1000), Duration.ZERO, 0))))));
+
+    @AfterEach
+    void deleteReport() throws IOException {
+        Files.deleteIfExists(REPORT_FILE);
+    }
+
+    @Test
+    void withoutResourceUsage() throws IOException {
+        ReportWriter.write(RESULTS, REPORT_FILE);
+        assertEquals("""
+                fails-test
+                    AddTest
+                        Failed tests:
+                            AddTest.add1:\s
+                            AddTest.add2: timeout
+
+                """, readString(REPORT_FILE));
+    }
+
+    @Test
+    void withResourceUsage() throws IOException {
+        var locale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY); // uses decimal comma
+        try {
+            ReportWriter.write(RESULTS, REPORT_FILE, true);
+        } finally {
+            Locale.setDefault(locale);
+        }
+        // CPU time and allocated memory are not available after a timeout
+        assertEquals("""
+                fails-test
+                    AddTest
+                        Failed tests:
+                            AddTest.add1: 1500 ms wall, 1200 ms CPU, 12.3 MB allocated
+                            AddTest.add2: timeout, 1000 ms wall
+
+                """, readString(REPORT_FILE));
+    }
+
+    private static TestResult failed(String name, boolean timeout, ResourceUsage usage) {
+        return new TestResult(new TestMethod("AddTest", name), false, emptyList(),
+                false, 1, false, timeout, false, emptyList(), emptyList(),
+                Decision.LIMIT_REACHED, List.of(usage));
+    }
+}
@@ -0,0 +1,33 @@
+package ch.trick17.jtt.junitextensions;
+
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Defines the time budget for each repetition of a test when it is run by the
+ * test runner, replacing the repetition timeout of the task (which may be
+ * longer or shorter). Can be put on a test method or on a test class, in
+ * which case it applies to all test methods in the class (including
+ * <code>@Nested</code> classes) that do not have their own annotation.
+ * <p>
+ * Unlike JUnit's {@link org.junit.jupiter.api.Timeout}, the budget includes
+ * the overhead of running the test (e.g., class loading), and exceeding it is
+ * reported as a timeout of the repetition instead of a test failure. Has no
+ * effect when tests are run by plain JUnit.
+ */
+@Target({METHOD, TYPE})
+@Retention(RUNTIME)
+@Inherited
+public @interface RepetitionTimeout {
+
+    long value();
+
+    TimeUnit unit() default SECONDS;
+}
@@ -0,0 +1,135 @@
+package ch.trick17.jtt.sandbox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A cache for the bytecode produced by the instrumentation in
+ * {@link SandboxClassLoader}. The same classes are often loaded into many
+ * sandboxes (e.g., the same reference classes for thousands of mutants), but
+ * instrumenting them is expensive. The keys are computed by the class loader
+ * and cover everything that affects the instrumentation (see
+ * {@link SandboxClassLoader}). The cache keeps a bounded number of entries in
+ * memory and optionally persists them to a directory, so they can be reused
+ * by other VMs.
+ * <p>
+ * By default, all class loaders share the cache returned by {@link #shared()},
+ * which keeps up to 4096 entries in memory and persists them to the directory
+ * given by the system property <code>sandbox.instrumentationCache</code>, if
+ * set. To disable caching, set the system property
+ * <code>sandbox.noInstrumentationCache</code>.
+ */
+public class InstrumentationCache {
+
+    private static volatile InstrumentationCache shared;
+
+    /**
+     * Returns the cache shared by all {@link SandboxClassLoader}s, or
+     * <code>null</code> if caching is disabled.
+     */
+    public static InstrumentationCache shared() {
+        if (System.getProperties().containsKey("sandbox.noInstrumentationCache")) {
+            return null;
+        }
+        if (shared == null) {
+            synchronized (InstrumentationCache.class) {
+                if (shared == null) {
+                    var dir = System.getProperty("sandbox.instrumentationCache");
+                    shared = new InstrumentationCache(4096, dir == null ? null : Path.of(dir));
+                }
+            }
+        }
+        return shared;
+    }
+
+    private final int maxEntries;
+    private final Path directory;
+    private final Map<String, byte[]> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache that keeps up to <code>maxEntries</code> entries in
+     * memory, evicting the least recently used ones. If
+     * <code>directory</code> is not <code>null</code>, entries are also
+     * written to (and read from) that directory.
+     */
+    public InstrumentationCache(int maxEntries, Path directory) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+        this.directory = directory;
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > InstrumentationCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the instrumented bytecode for the given key, or
+     * <code>null</code> if there is none.
+     */
+    public byte[] get(String key) {
+        byte[] bytecode;
+        synchronized (entries) {
+            bytecode = entries.get(key);
+        }
+        if (bytecode == null && directory != null) {
+            try {
+                bytecode = Files.readAllBytes(file(key));
+                synchronized (entries) {
+                    entries.put(key, bytecode);
+                }
+            } catch (IOException e) {
+                // not cached (or not readable, in which case it is written again)
+            }
+        }
+        (bytecode == null ? misses : hits).incrementAndGet();
+        return bytecode;
+    }
+
+    public void put(String key, byte[] bytecode) {
+        synchronized (entries) {
+            entries.put(key, bytecode);
+        }
+        if (directory != null) {
+            Path temp = null;
+            try {
+                Files.createDirectories(directory);
+                // write to a temporary file first, so that other VMs never
+                // see a partially written entry
+                temp = Files.createTempFile(directory, key, ".tmp");
+                Files.write(temp, bytecode);
+                Files.move(temp, file(key), REPLACE_EXISTING, ATOMIC_MOVE);
+            } catch (IOException e) {
+                // persisting is only an optimization
+                try {
+                    if (temp != null) {
+                        Files.deleteIfExists(temp);
+                    }
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + ".class");
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+}
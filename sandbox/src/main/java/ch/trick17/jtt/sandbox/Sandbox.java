@@ -5,12 +5,15 @@ import org.apache.commons.io.output.TeeOutputStream;
 
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 import static ch.trick17.jtt.sandbox.InputMode.CLOSED;
@@ -59,6 +62,9 @@ public class Sandbox implements Closeable {
         loader = new SandboxClassLoader(builder.sandboxedCode,
                 builder.supportCode, builder.permittedCalls,
                 builder.timeout != null, getPlatformClassLoader());
+        if (builder.instrumentEagerly) {
+            loader.instrumentAll();
+        }
         this.timeout = builder.timeout;
         this.stdInMode = builder.stdInMode;
         this.stdOutMode = builder.stdOutMode;
@@ -88,41 +94,60 @@ public class Sandbox implements Closeable {
     public <T> Result<T> run(String className, String methodName,
                              List<Class<?>> paramTypes, List<?> args,
                              Class<T> resultType) {
-        // Re-initialize sandboxed classes, in the same order they were
-        // originally loaded. The first time the sandbox is used, no classes
-        // have been loaded yet, so this loop terminates immediately.
-        for (var c : loader.getSandboxedClasses()) {
-            try {
-                var reInit = c.getMethod(RE_INIT_METHOD);
-                reInit.setAccessible(true);
-                reInit.invoke(null);
-            } catch (NoSuchMethodException ignored) {
-                // only classes with static state have this method
-            } catch (NoClassDefFoundError | VerifyError ignored) {
-                // Ignore; if this happens, this class cannot be used anyway,
-                // so isolation should not be affected. May happen if an
-                // exception was thrown in the static initializer of the class
-                // or if the bytecode instrumentation messed up.
-            } catch (IllegalAccessException | InvocationTargetException e) {
-                // NoClassDefFoundError may be wrapped in an InvocationTargetException
-                if (!(e.getCause() instanceof NoClassDefFoundError)) {
-                    throw new AssertionError("Could not re-initialize class " + c, e);
-                }
-            }
+        return run(className, methodName, paramTypes, args, resultType, timeout);
+    }
+
+    /**
+     * Runs the specified static (!) method like
+     * {@link #run(String, String, List, List, Class)}, but with the given
+     * timeout instead of the one the sandbox was built with. This is only
+     * possible if the sandbox was built with a timeout, since otherwise the
+     * sandboxed code is not instrumented to react to timeouts.
+     */
+    public <T> Result<T> run(String className, String methodName,
+                             List<Class<?>> paramTypes, List<?> args,
+                             Class<T> resultType, Duration timeout) {
+        var result = new ArrayList<Result<T>>(1);
+        runRepeatedly(className, methodName, paramTypes, args, resultType, timeout, r -> {
+            result.add(r);
+            return false;
+        });
+        return result.get(0);
+    }
+
+    /**
+     * Runs the specified static (!) method repeatedly, like
+     * {@link #run(String, String, List, List, Class, Duration)}, but within a
+     * single call, so that the method needs to be looked up only once. Before
+     * each repetition, the static state of the sandboxed code is
+     * re-initialized, and each repetition has its own timeout. After each
+     * repetition, <code>repeat</code> is called on the current thread with
+     * its result and decides whether to make another one.
+     */
+    public <T> void runRepeatedly(String className, String methodName,
+                                  List<Class<?>> paramTypes, List<?> args,
+                                  Class<T> resultType, Duration timeout,
+                                  Predicate<Result<T>> repeat) {
+        if (timeout != null && this.timeout == null) {
+            throw new IllegalStateException("sandbox was built without timeout");
         }
 
+        // look up the method lazily, so that errors are reported as results
+        var method = new Method[1];
         Action<T> isolated = () -> {
-            var cls = loader.loadClass(className);
-            var method = cls.getMethod(methodName, paramTypes.toArray(Class<?>[]::new));
+            if (method[0] == null) {
+                var cls = loader.loadClass(className);
+                method[0] = cls.getMethod(methodName, paramTypes.toArray(Class<?>[]::new));
+            }
             var runner = new CustomCxtClassLoaderRunner(loader);
             try {
-                return runner.run(() -> resultType.cast(method.invoke(null, args.toArray())));
+                return runner.run(() -> resultType.cast(method[0].invoke(null, args.toArray())));
             } catch (InvocationTargetException e) {
                 throw e.getCause();
             }
         };
 
-        Action<T> timed = timeout != null ? () -> runWithTimeout(isolated) : isolated;
+        Action<T> timed = timeout != null ? () -> runWithTimeout(isolated, timeout) : isolated;
 
         Supplier<Result<T>> asResult = () -> {
             try {
@@ -140,6 +165,41 @@ public class Sandbox implements Closeable {
             }
         };
 
+        Result<T> result;
+        do {
+            reInitialize();
+            result = withStreams(asResult);
+        } while (repeat.test(result));
+    }
+
+    /**
+     * Re-initializes sandboxed classes, in the same order they were
+     * originally loaded. The first time the sandbox is used, no classes have
+     * been loaded yet, so this method does nothing.
+     */
+    private void reInitialize() {
+        for (var c : loader.getSandboxedClasses()) {
+            try {
+                var reInit = c.getMethod(RE_INIT_METHOD);
+                reInit.setAccessible(true);
+                reInit.invoke(null);
+            } catch (NoSuchMethodException ignored) {
+                // only classes with static state have this method
+            } catch (NoClassDefFoundError | VerifyError ignored) {
+                // Ignore; if this happens, this class cannot be used anyway,
+                // so isolation should not be affected. May happen if an
+                // exception was thrown in the static initializer of the class
+                // or if the bytecode instrumentation messed up.
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                // NoClassDefFoundError may be wrapped in an InvocationTargetException
+                if (!(e.getCause() instanceof NoClassDefFoundError)) {
+                    throw new AssertionError("Could not re-initialize class " + c, e);
+                }
+            }
+        }
+    }
+
+    private <T> Result<T> withStreams(Supplier<Result<T>> asResult) {
         if (stdInMode != InputMode.NORMAL || stdOutMode != NORMAL || stdErrMode != NORMAL) {
             ensureStreamsInstalled();
             if (stdInMode == EMPTY || stdInMode == CLOSED) {
@@ -195,7 +255,7 @@ public class Sandbox implements Closeable {
      * instrumentation performed by the SandboxClassLoader ensures that the
      * sandboxed code actually reacts to the interruption.
      */
-    private <T> T runWithTimeout(Action<T> action) throws Throwable {
+    private static <T> T runWithTimeout(Action<T> action, Duration timeout) throws Throwable {
         var task = new FutureTask<>(action.asCallable());
         var thread = new Thread(task);
         // we should be able to kill the thread, but just in case, the thread is
@@ -251,6 +311,7 @@ public class Sandbox implements Closeable {
         private InputMode stdInMode = InputMode.NORMAL;
         private OutputMode stdOutMode = NORMAL;
         private OutputMode stdErrMode = NORMAL;
+        private boolean instrumentEagerly = false;
 
         /**
          * Builds a new sandbox with the given class paths for the sandboxed
@@ -314,6 +375,20 @@ public class Sandbox implements Closeable {
             return this;
         }
 
+        /**
+         * Determines whether the sandboxed code is instrumented when the
+         * sandbox is built instead of when the classes are first loaded.
+         * The instrumentation can take much longer than executing the
+         * code, so this is useful to prevent it from counting
+         * towards the timeout of the first run. By default, the code is
+         * instrumented lazily, which is faster if only a few of the sandboxed
+         * classes are used.
+         */
+        public Builder instrumentEagerly(boolean instrumentEagerly) {
+            this.instrumentEagerly = instrumentEagerly;
+            return this;
+        }
+
         public Sandbox build() throws IOException {
             return new Sandbox(this);
         }
@@ -4,8 +4,10 @@ import ch.trick17.jtt.memcompile.ClassPath;
 import ch.trick17.jtt.memcompile.InMemClassLoader;
 import javassist.*;
 import javassist.bytecode.BadBytecode;
+import javassist.bytecode.ClassFile;
 import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
+import javassist.bytecode.ConstPool;
 import javassist.bytecode.SignatureAttribute.Type;
 import javassist.bytecode.analysis.ControlFlow;
 import javassist.bytecode.analysis.ControlFlow.Block;
@@ -15,13 +17,22 @@ import javassist.expr.Handler;
 import javassist.expr.MethodCall;
 import javassist.expr.NewExpr;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
 
 import static java.lang.String.join;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.stream;
 import static java.util.Comparator.comparing;
 import static java.util.stream.Collectors.toCollection;
@@ -36,7 +47,21 @@ public class SandboxClassLoader extends InMemClassLoader {
     // use method name with special chars to avoid name clashes
     public static final String RE_INIT_METHOD = "{reInit}";
 
-    private final ClassPool pool = new ClassPool(false);
+    private static final Pattern TYPE_REF = Pattern.compile("L([^;<]+)[;<]");
+
+    // part of the cache keys, see instrumentationVersion()
+    private static final String INSTRUMENTATION_VERSION = instrumentationVersion();
+
+    // digests of the class path entries of support code, see fileDigest()
+    private static final Map<Path, FileDigest> fileDigests = new ConcurrentHashMap<>();
+
+    // shared parent pools, see sharedPool()
+    private static final Map<ClassLoader, Map<List<Path>, ClassPool>> sharedPools = new WeakHashMap<>();
+
+    private final ClassPath sandboxedCode;
+    private final ClassPath supportCode;
+    private final ClassPool sharedPool;
+    private final ClassPool pool;
     private final Whitelist permittedCalls;
     private final boolean makeInterruptible;
 
@@ -44,26 +69,47 @@ public class SandboxClassLoader extends InMemClassLoader {
     // keep track of sandboxed classes (and loading order) for re-initialization
     private final Queue<Class<?>> sandboxedClasses = new ConcurrentLinkedQueue<>();
 
+    private final InstrumentationCache cache;
+    private final String whitelistDigest;
+    private final Map<String, ClassInfo> classInfos = new ConcurrentHashMap<>();
+    private volatile byte[] supportDigest;
+    // bytecode instrumented ahead of time, see instrumentAll()
+    private final Map<String, byte[]> instrumented = new ConcurrentHashMap<>();
+
     public SandboxClassLoader(ClassPath sandboxedCode,
                               ClassPath supportCode,
                               Whitelist permittedCalls,
                               boolean makeInterruptible,
                               ClassLoader parent) throws IOException {
+        this(sandboxedCode, supportCode, permittedCalls, makeInterruptible, parent,
+                InstrumentationCache.shared());
+    }
+
+    /**
+     * Creates a class loader that uses the given cache for instrumented
+     * bytecode, or no cache if <code>cache</code> is <code>null</code>.
+     */
+    public SandboxClassLoader(ClassPath sandboxedCode,
+                              ClassPath supportCode,
+                              Whitelist permittedCalls,
+                              boolean makeInterruptible,
+                              ClassLoader parent,
+                              InstrumentationCache cache) throws IOException {
         super(supportCode, parent);
         this.makeInterruptible = makeInterruptible;
-        try {
-            var all = sandboxedCode.with(supportCode);
-            for (var classFile : all.memClassPath()) {
-                pool.appendClassPath(new ByteArrayClassPath(
-                        classFile.getClassName(), classFile.getContent()));
-            }
-            for (var path : all.fileClassPath()) {
-                pool.appendClassPath(path.toString());
-            }
-            pool.appendClassPath(new LoaderClassPath(parent));
-        } catch (NotFoundException e) {
-            throw new IllegalArgumentException(e);
+        this.cache = cache;
+        if (permittedCalls == null) {
+            whitelistDigest = "unrestricted";
+        } else if (permittedCalls instanceof SimpleWhitelist simple) {
+            whitelistDigest = HexFormat.of().formatHex(sha256().digest(
+                    simple.canonicalForm().getBytes(UTF_8)));
+        } else {
+            whitelistDigest = null; // unknown implementation, cannot cache
         }
+        this.sandboxedCode = sandboxedCode;
+        this.supportCode = supportCode;
+        sharedPool = sharedPool(supportCode.fileClassPath(), parent);
+        pool = childPool();
         this.permittedCalls = permittedCalls;
 
         sandboxedClassNames = new HashSet<>();
@@ -82,6 +128,64 @@ public class SandboxClassLoader extends InMemClassLoader {
         }
     }
 
+    /**
+     * Returns a pool for the given class files of the support code and the
+     * classes of the given parent loader (e.g., the JDK), which is shared by
+     * all loaders with the same support code and parent. This way, these
+     * classes are parsed only once, not again for each sandbox. The shared
+     * pool is never modified, since only sandboxed classes are instrumented
+     * and these always come from the child pool of a loader. Like the JVM
+     * itself, the pool assumes that the given class files do not change.
+     * <p>
+     * Class pools and the CtClasses they return are not thread-safe, and
+     * getting a class from a child pool may get (and cache) classes in the
+     * shared pool. Therefore, all instrumentation happens while holding the
+     * lock of the shared pool.
+     */
+    private static ClassPool sharedPool(List<Path> supportFiles, ClassLoader parent) {
+        synchronized (sharedPools) {
+            var pools = sharedPools.computeIfAbsent(parent, p -> new HashMap<>());
+            var pool = pools.get(supportFiles);
+            if (pool == null) {
+                pool = new ClassPool(false);
+                try {
+                    for (var path : supportFiles) {
+                        pool.appendClassPath(path.toString());
+                    }
+                } catch (NotFoundException e) {
+                    throw new IllegalArgumentException(e);
+                }
+                // LoaderClassPath only keeps a weak reference to the parent
+                pool.appendClassPath(new LoaderClassPath(parent));
+                pools.put(List.copyOf(supportFiles), pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Creates a pool for the classes in memory and the sandboxed class files,
+     * which are specific to this loader. The rest comes from the shared pool.
+     * The lookup order is the same as with a single pool, as the child pool
+     * is searched first.
+     */
+    private ClassPool childPool() {
+        var child = new ClassPool(sharedPool);
+        child.childFirstLookup = true;
+        try {
+            for (var classFile : sandboxedCode.with(supportCode).memClassPath()) {
+                child.appendClassPath(new ByteArrayClassPath(
+                        classFile.getClassName(), classFile.getContent()));
+            }
+            for (var path : sandboxedCode.fileClassPath()) {
+                child.appendClassPath(path.toString());
+            }
+        } catch (NotFoundException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return child;
+    }
+
     public Iterable<Class<?>> getSandboxedClasses() {
         return sandboxedClasses;
     }
@@ -92,15 +196,11 @@ public class SandboxClassLoader extends InMemClassLoader {
             return super.findClass(name);
         }
 
-        CtClass cls;
-        try {
-            cls = pool.get(name);
-        } catch (NotFoundException e) {
-            throw new ClassNotFoundException("class not found in pool", e);
-        }
         try {
-            instrument(cls);
-            var bytecode = cls.toBytecode();
+            var bytecode = instrumented.remove(name);
+            if (bytecode == null) {
+                bytecode = instrumentedBytecode(name);
+            }
 
             if (System.getProperties().containsKey("sandbox.dumpInstrumented")) {
                 var file = Path.of("sandbox-dump/" + name.replace('.', '/') + ".class");
@@ -110,11 +210,225 @@ public class SandboxClassLoader extends InMemClassLoader {
             var result = defineClass(name, bytecode, 0, bytecode.length);
             sandboxedClasses.add(result);
             return result;
+        } catch (ClassNotFoundException e) {
+            throw e;
         } catch (Exception e) {
             throw new ClassNotFoundException("could not instrument class", e);
         }
     }
 
+    /**
+     * Instruments all sandboxed classes, so that they can later be loaded
+     * without delay. This is useful to keep the (considerable) cost of the
+     * instrumentation out of time-critical code, e.g., code that runs with a
+     * timeout. Classes that cannot be instrumented are skipped; the
+     * corresponding error is reported when they are loaded, like without
+     * this method. The classes are instrumented one after the other, since
+     * the instrumentation holds the lock of the shared pool anyway.
+     */
+    public void instrumentAll() {
+        for (var name : sandboxedClassNames) {
+            try {
+                instrumented.put(name, instrumentedBytecode(name));
+            } catch (Exception e) {
+                // ignore, see above
+            }
+        }
+    }
+
+    private byte[] instrumentedBytecode(String name) throws Exception {
+        var key = cacheKey(name);
+        var bytecode = key == null ? null : cache.get(key);
+        if (bytecode == null) {
+            synchronized (sharedPool) {
+                CtClass cls;
+                try {
+                    cls = pool.get(name);
+                } catch (NotFoundException e) {
+                    throw new ClassNotFoundException("class not found in pool", e);
+                }
+                instrument(cls);
+                bytecode = cls.toBytecode();
+            }
+            if (key != null) {
+                cache.put(key, bytecode);
+            }
+        }
+        return bytecode;
+    }
+
+    /**
+     * Returns the key for the instrumented bytecode of the given class in the
+     * {@link InstrumentationCache}, or <code>null</code> if it cannot be
+     * cached. Besides on the class itself and the options of this loader, the
+     * instrumentation depends on the sandboxed classes the class refers to:
+     * calls to them are never restricted, and their class hierarchy affects
+     * the rebuilt stack maps. Therefore, the key also covers all sandboxed
+     * classes that the class refers to, directly or indirectly. The support
+     * code affects the instrumentation as well, e.g., the class hierarchy
+     * used for the stack maps, so the key also covers a
+     * {@linkplain #supportDigest() digest} of the support code. Finally,
+     * since cached bytecode may be persisted and read by other VMs, the key
+     * includes the {@linkplain #instrumentationVersion() version} of the
+     * instrumentation itself.
+     */
+    private String cacheKey(String name) throws IOException {
+        if (cache == null || whitelistDigest == null || INSTRUMENTATION_VERSION == null) {
+            return null;
+        }
+        var closure = new TreeSet<String>();
+        var todo = new ArrayDeque<>(List.of(name));
+        while (!todo.isEmpty()) {
+            var next = todo.remove();
+            if (!closure.contains(next)) {
+                var info = classInfo(next);
+                if (info == null) {
+                    return null;
+                }
+                closure.add(next);
+                todo.addAll(info.sandboxedRefs());
+            }
+        }
+        var sha = sha256();
+        sha.update((INSTRUMENTATION_VERSION + "\n" + name + "\n" + makeInterruptible + "\n"
+                    + whitelistDigest + "\n").getBytes(UTF_8));
+        sha.update(supportDigest());
+        for (var c : closure) {
+            sha.update((c + "\n").getBytes(UTF_8));
+            sha.update(classInfo(c).digest());
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    private record ClassInfo(byte[] digest, Set<String> sandboxedRefs) {}
+
+    private ClassInfo classInfo(String name) throws IOException {
+        var info = classInfos.get(name);
+        if (info == null) {
+            var url = pool.find(name);
+            if (url == null) {
+                return null;
+            }
+            byte[] bytes;
+            try (var in = url.openStream()) {
+                bytes = in.readAllBytes();
+            }
+            // conservatively, find all references in the constant pool,
+            // including those in descriptors and generic signatures
+            var constPool = new ClassFile(new DataInputStream(
+                    new ByteArrayInputStream(bytes))).getConstPool();
+            var refs = new HashSet<String>();
+            for (int i = 1; i < constPool.getSize(); i++) {
+                if (constPool.getTag(i) == ConstPool.CONST_Utf8) {
+                    var utf8 = constPool.getUtf8Info(i);
+                    refs.add(utf8.replace('/', '.'));
+                    var matcher = TYPE_REF.matcher(utf8);
+                    while (matcher.find()) {
+                        refs.add(matcher.group(1).replace('/', '.'));
+                    }
+                }
+            }
+            refs.retainAll(sandboxedClassNames);
+            info = new ClassInfo(sha256().digest(bytes), refs);
+            classInfos.put(name, info);
+        }
+        return info;
+    }
+
+    /**
+     * Returns a digest of the content of the support code, i.e., of its
+     * classes in memory and of its class path entries. To be on the safe
+     * side, this covers all of the support code, not only the classes the
+     * instrumented classes refer to (and their supertypes, etc.).
+     */
+    private byte[] supportDigest() throws IOException {
+        if (supportDigest == null) {
+            var sha = sha256();
+            for (var classFile : supportCode.memClassPath()) {
+                sha.update((classFile.getClassName() + "\n").getBytes(UTF_8));
+                sha.update(classFile.getContent());
+            }
+            for (var path : supportCode.fileClassPath()) {
+                sha.update((path + "\n").getBytes(UTF_8));
+                sha.update(fileDigest(path));
+            }
+            supportDigest = sha.digest();
+        }
+        return supportDigest;
+    }
+
+    private record FileDigest(String stamp, byte[] digest) {}
+
+    /**
+     * Returns a digest of the content of the given class path entry (a JAR
+     * file or a directory). Since these entries are shared by many loaders
+     * and can be large, the digests are cached as long as the size and
+     * modification time of the files stay the same.
+     */
+    private static byte[] fileDigest(Path path) throws IOException {
+        var files = new TreeMap<String, Path>();
+        if (Files.isDirectory(path)) {
+            try (var walk = Files.walk(path)) {
+                walk.filter(Files::isRegularFile)
+                        .forEach(f -> files.put(path.relativize(f).toString(), f));
+            }
+        } else {
+            files.put("", path);
+        }
+        var stamp = new StringBuilder();
+        for (var entry : files.entrySet()) {
+            stamp.append(entry.getKey()).append(' ')
+                    .append(Files.size(entry.getValue())).append(' ')
+                    .append(Files.getLastModifiedTime(entry.getValue())).append('\n');
+        }
+        var cached = fileDigests.get(path);
+        if (cached != null && cached.stamp().contentEquals(stamp)) {
+            return cached.digest();
+        }
+        var sha = sha256();
+        for (var entry : files.entrySet()) {
+            sha.update((entry.getKey() + "\n").getBytes(UTF_8));
+            try (var in = new DigestInputStream(Files.newInputStream(entry.getValue()), sha)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+        var digest = sha.digest();
+        fileDigests.put(path, new FileDigest(stamp.toString(), digest));
+        return digest;
+    }
+
+    /**
+     * Returns a digest of everything besides the class itself and the options
+     * that affects the instrumentation: the code of this class (including
+     * nested classes), the Javassist version, and the Java version. Returns
+     * <code>null</code> if the code of this class cannot be read, in which
+     * case nothing is cached.
+     */
+    private static String instrumentationVersion() {
+        var sha = sha256();
+        sha.update((CtClass.version + "\n" + Runtime.version() + "\n").getBytes(UTF_8));
+        for (var cls : SandboxClassLoader.class.getNestMembers()) {
+            var file = cls.getName().substring(cls.getPackageName().length() + 1) + ".class";
+            try (var in = cls.getResourceAsStream(file)) {
+                if (in == null) {
+                    return null;
+                }
+                sha.update(in.readAllBytes());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // SHA-256 is supported on all platforms
+        }
+    }
+
     private void instrument(CtClass cls) throws Exception {
         for (var behavior : cls.getDeclaredBehaviors()) {
             if (!behavior.isEmpty()) {
@@ -270,7 +584,7 @@ public class SandboxClassLoader extends InMemClassLoader {
             iterator.write16bit(insertedIndex - nextIndex, nextIndex + 1);
         }
 
-        behavior.getMethodInfo().rebuildStackMap(pool);
+        behavior.getMethodInfo().rebuildStackMap(behavior.getDeclaringClass().getClassPool());
     }
 
     private static class RethrowAdder extends ExprEditor {
@@ -37,6 +37,14 @@ public class SimpleWhitelist implements Whitelist {
                 .toList();
     }
 
+    /**
+     * Returns a string that is equal for two whitelists if and only if they
+     * have the same entries, in the same order.
+     */
+    String canonicalForm() {
+        return entries.toString();
+    }
+
     public boolean methodPermitted(String className, String methodName, List<String> paramTypes) {
         return entries.stream().anyMatch(e -> e.matchesMethod(className, methodName, paramTypes));
     }
@@ -0,0 +1,111 @@
+package ch.trick17.jtt.sandbox;
+
+import ch.trick17.jtt.memcompile.ClassPath;
+import ch.trick17.jtt.memcompile.InMemSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ch.trick17.jtt.memcompile.Compiler.JAVAC;
+import static ch.trick17.jtt.memcompile.InMemCompilation.compile;
+import static java.lang.ClassLoader.getPlatformClassLoader;
+import static java.lang.System.nanoTime;
+
+/**
+ * Measures the time to create a {@link SandboxClassLoader} and load one
+ * (instrumented) class with it, as well as the memory retained per loader.
+ * Since the class pool for the JDK and the support code is shared between
+ * loaders, both should be much smaller than when every loader parses these
+ * classes again. The instrumentation cache is disabled, so that each loader
+ * actually instruments the class. Not a test; run the main method manually,
+ * ideally with a fixed heap size (e.g., <code>-Xms2g -Xmx2g</code>), so that
+ * the memory measurements are more stable.
+ */
+public class ClassPoolBenchmark {
+
+    private static final int LOADERS = 200;
+    private static final int ROUNDS = 2; // the first round is a warm-up
+
+    private static final String SOURCE = """
+            import java.util.*;
+            import java.util.stream.*;
+
+            public class Work {
+                static int sum(int[] a) {
+                    int s = 0;
+                    for (int x : a) {
+                        s += x;
+                    }
+                    return s;
+                }
+                static String join(List<String> list) {
+                    var sb = new StringBuilder();
+                    for (var s : list) {
+                        if (s.isEmpty()) {
+                            continue;
+                        }
+                        sb.append(s).append(',');
+                    }
+                    return sb.toString();
+                }
+                static Map<String, Integer> count(String text) {
+                    var map = new HashMap<String, Integer>();
+                    for (var word : text.split(" ")) {
+                        map.merge(word, 1, Integer::sum);
+                    }
+                    return map;
+                }
+                static Object pick(boolean b) {
+                    Object o = b ? new ArrayList<String>() : new LinkedList<String>();
+                    while (o.hashCode() < 0) {
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {}
+                    }
+                    return o;
+                }
+                static String filter(List<Integer> list) {
+                    return list.stream()
+                            .filter(i -> i > 2)
+                            .map(String::valueOf)
+                            .collect(Collectors.joining(" "));
+                }
+            }
+            """;
+
+    public static void main(String[] args) throws Exception {
+        var sandboxed = ClassPath.fromMemory(compile(JAVAC,
+                List.of(InMemSource.fromString(SOURCE)), ClassPath.fromCurrent()).output());
+        var support = ClassPath.fromCurrent();
+
+        System.out.printf("%6s %14s %14s%n", "round", "ms/loader", "KB/loader");
+        for (int round = 1; round <= ROUNDS; round++) {
+            var retained = new ArrayList<Object>();
+            var before = usedMemory();
+            var start = nanoTime();
+            for (int i = 0; i < LOADERS; i++) {
+                var loader = new SandboxClassLoader(sandboxed, support,
+                        Whitelist.getDefault(), true, getPlatformClassLoader(), null);
+                retained.add(loader.loadClass("Work"));
+            }
+            var time = nanoTime() - start;
+            var memory = usedMemory() - before;
+            System.out.printf("%6d %14.2f %14.1f%n", round,
+                    time / 1e6 / LOADERS, memory / 1024.0 / LOADERS);
+            retained.clear();
+        }
+    }
+
+    /**
+     * Returns the currently used heap memory, in bytes, after trying to
+     * collect all garbage.
+     */
+    private static long usedMemory() throws InterruptedException {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -2,12 +2,20 @@ package ch.trick17.jtt.sandbox;
 
 import ch.trick17.jtt.memcompile.ClassPath;
 import ch.trick17.jtt.memcompile.InMemClassFile;
+import ch.trick17.jtt.memcompile.InMemSource;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import static ch.trick17.jtt.memcompile.ClassPath.empty;
+import static ch.trick17.jtt.memcompile.Compiler.ECLIPSE;
+import static ch.trick17.jtt.memcompile.InMemCompilation.compile;
 import static java.lang.ClassLoader.getPlatformClassLoader;
+import static java.util.Collections.nCopies;
+import static java.util.Comparator.reverseOrder;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -76,6 +84,119 @@ public class SandboxClassLoaderTest {
             loader.loadClass("ch.trick17.jtt.sandbox.SandboxClassLoaderTest");
         });
     }
+
+    @Test
+    void instrumentationCache() throws Exception {
+        var classPath = ClassPath.fromMemory(List.of(greeterClassFile()));
+        var cache = new InstrumentationCache(100, null);
+        for (int i = 0; i < 3; i++) {
+            var loader = new SandboxClassLoader(classPath, empty(),
+                    Whitelist.getDefault(), true, getPlatformClassLoader(), cache);
+            var greet = loader.loadClass(Greeter.class.getName()).getDeclaredMethod("greet");
+            greet.setAccessible(true);
+            assertEquals("Hello, World!", greet.invoke(null));
+        }
+        assertEquals(1, cache.misses());
+        assertEquals(2, cache.hits());
+
+        // different options lead to different instrumentation
+        new SandboxClassLoader(classPath, empty(), null, true,
+                getPlatformClassLoader(), cache).loadClass(Greeter.class.getName());
+        new SandboxClassLoader(classPath, empty(), Whitelist.getDefault(), false,
+                getPlatformClassLoader(), cache).loadClass(Greeter.class.getName());
+        assertEquals(3, cache.misses());
+    }
+
+    @Test
+    void instrumentationCacheSupportCode() throws Exception {
+        var support = compile(ECLIPSE, List.of(InMemSource.fromString("""
+                public class Base {
+                    public int value() { return 1; }
+                }
+                """)), empty()).output();
+        var changedSupport = compile(ECLIPSE, List.of(InMemSource.fromString("""
+                public class Base {
+                    public int value() { return 2; }
+                }
+                """)), empty()).output();
+        var sandboxed = compile(ECLIPSE, List.of(InMemSource.fromString("""
+                public class Sub extends Base {}
+                """)), ClassPath.fromMemory(support)).output();
+
+        var cache = new InstrumentationCache(100, null);
+        for (var supportCode : List.of(support, support, changedSupport)) {
+            new SandboxClassLoader(ClassPath.fromMemory(sandboxed), ClassPath.fromMemory(supportCode),
+                    Whitelist.getDefault(), true, getPlatformClassLoader(), cache).loadClass("Sub");
+        }
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    void instrumentationCachePersisted() throws Exception {
+        var classPath = ClassPath.fromMemory(List.of(greeterClassFile()));
+        var dir = Files.createTempDirectory("instrumentation-cache");
+        try {
+            var first = new InstrumentationCache(100, dir);
+            new SandboxClassLoader(classPath, empty(), Whitelist.getDefault(), true,
+                    getPlatformClassLoader(), first).loadClass(Greeter.class.getName());
+            assertEquals(1, first.misses());
+
+            var second = new InstrumentationCache(100, dir);
+            var loader = new SandboxClassLoader(classPath, empty(), Whitelist.getDefault(), true,
+                    getPlatformClassLoader(), second);
+            var greet = loader.loadClass(Greeter.class.getName()).getDeclaredMethod("greet");
+            greet.setAccessible(true);
+            assertEquals("Hello, World!", greet.invoke(null));
+            assertEquals(1, second.hits());
+        } finally {
+            try (var files = Files.walk(dir)) {
+                files.sorted(reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    void concurrentLoaders() throws Exception {
+        // loaders with the same support code share a class pool
+        var classPath = ClassPath.fromMemory(List.of(greeterClassFile()));
+        var support = ClassPath.fromCurrent();
+        var results = IntStream.range(0, 16).parallel().mapToObj(i -> {
+            try {
+                var loader = new SandboxClassLoader(classPath, support,
+                        Whitelist.getDefault(), true, getPlatformClassLoader(), null);
+                var greet = loader.loadClass(Greeter.class.getName()).getDeclaredMethod("greet");
+                greet.setAccessible(true);
+                return greet.invoke(null);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }).toList();
+        assertEquals(nCopies(16, "Hello, World!"), results);
+    }
+
+    @Test
+    void instrumentAll() throws Exception {
+        var classPath = ClassPath.fromMemory(List.of(greeterClassFile()));
+        var cache = new InstrumentationCache(100, null);
+        var loader = new SandboxClassLoader(classPath, empty(),
+                Whitelist.getDefault(), true, getPlatformClassLoader(), cache);
+        loader.instrumentAll();
+        assertEquals(1, cache.misses());
+
+        // class is loaded without instrumenting (or looking it up) again
+        var greet = loader.loadClass(Greeter.class.getName()).getDeclaredMethod("greet");
+        greet.setAccessible(true);
+        assertEquals("Hello, World!", greet.invoke(null));
+        assertEquals(1, cache.misses());
+        assertEquals(0, cache.hits());
+    }
+
+    private static InMemClassFile greeterClassFile() throws IOException {
+        try (var in = Greeter.class.getResourceAsStream("Greeter.class")) {
+            return new InMemClassFile(Greeter.class.getName(), in.readAllBytes());
+        }
+    }
 }
 
 class Greeter {
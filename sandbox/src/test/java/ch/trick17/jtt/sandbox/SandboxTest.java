@@ -27,6 +27,7 @@ import static ch.trick17.jtt.sandbox.InputMode.CLOSED;
 import static ch.trick17.jtt.sandbox.InputMode.EMPTY;
 import static ch.trick17.jtt.sandbox.OutputMode.*;
 import static ch.trick17.jtt.sandbox.Sandbox.Result.Kind.EXCEPTION;
+import static java.lang.System.currentTimeMillis;
 import static java.util.Collections.emptyList;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -496,6 +497,65 @@ public class SandboxTest {
         assertEquals(Kind.TIMEOUT, result.kind());
     }
 
+    @Test
+    void instrumentEagerly() throws IOException {
+        var sandbox = new Sandbox.Builder(code(), ClassPath.empty())
+                .timeout(Duration.ofMillis(500))
+                .instrumentEagerly(true)
+                .build();
+        var result = sandbox.run(WithStaticFields.class, "hellos",
+                emptyList(), emptyList(), List.class);
+        assertEquals(3, result.value().size());
+        result = sandbox.run(NormalLoop.class, "run",
+                emptyList(), emptyList(), List.class);
+        assertEquals(Kind.TIMEOUT, result.kind());
+    }
+
+    @Test
+    void timeoutOverride() throws IOException {
+        var sandbox = new Sandbox.Builder(code(), ClassPath.empty())
+                .timeout(Duration.ofSeconds(30))
+                .build();
+        var start = currentTimeMillis();
+        var result = sandbox.run(NormalLoop.class.getName(), "run",
+                emptyList(), emptyList(), Void.class, Duration.ofMillis(500));
+        assertEquals(Kind.TIMEOUT, result.kind());
+        assertTrue(currentTimeMillis() - start < 10_000);
+
+        var withoutTimeout = new Sandbox(code(), ClassPath.empty());
+        assertThrows(IllegalStateException.class, () -> withoutTimeout.run(
+                NormalLoop.class.getName(), "run", emptyList(), emptyList(),
+                Void.class, Duration.ofMillis(500)));
+    }
+
+    @Test
+    void runRepeatedly() throws IOException {
+        var sandbox = new Sandbox.Builder(code(), ClassPath.empty())
+                .timeout(Duration.ofSeconds(30))
+                .build();
+        var results = new ArrayList<Sandbox.Result<Integer>>();
+        sandbox.runRepeatedly(WithUninitializedStaticField.class.getName(), "increment",
+                emptyList(), emptyList(), Integer.class, null, r -> {
+                    results.add(r);
+                    return results.size() < 3;
+                });
+        assertEquals(3, results.size());
+        for (var result : results) {
+            assertEquals(0, result.value()); // static state is re-initialized
+        }
+
+        var timeouts = new ArrayList<Sandbox.Result<Void>>();
+        var start = currentTimeMillis();
+        sandbox.runRepeatedly(NormalLoop.class.getName(), "run", emptyList(), emptyList(),
+                Void.class, Duration.ofMillis(200), r -> {
+                    timeouts.add(r);
+                    return timeouts.size() < 2;
+                });
+        assertEquals(List.of(Kind.TIMEOUT, Kind.TIMEOUT),
+                timeouts.stream().map(Sandbox.Result::kind).toList());
+        assertTrue(currentTimeMillis() - start < 10_000);
+    }
+
     @Test
     void catchesInterruptedException() throws IOException {
         var sandbox = new Sandbox.Builder(code(), ClassPath.empty())
@@ -0,0 +1,85 @@
+package ch.trick17.jtt.testrunner;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Derives per-test repetition timeouts from the durations recorded in a
+ * {@link TestDurationHistory}. The timeout of a test is
+ * <code>factor</code> times the given <code>percentile</code> of its
+ * recorded durations, but at least <code>minTimeout</code> and at most
+ * <code>maxTimeout</code>. For tests with fewer than
+ * <code>minSamples</code> recorded durations, no timeout is derived, so the
+ * repetition timeout of the task applies.
+ */
+public record AdaptiveTimeouts(
+        double percentile,
+        double factor,
+        Duration minTimeout,
+        Duration maxTimeout,
+        int minSamples) {
+
+    /**
+     * Three times the 99th percentile, between 1 and 6 seconds, after at
+     * least 5 recorded durations.
+     */
+    public static final AdaptiveTimeouts DEFAULT = new AdaptiveTimeouts(0.99, 3.0,
+            Duration.ofSeconds(1), Duration.ofSeconds(6), 5);
+
+    public AdaptiveTimeouts {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        }
+        if (factor < 1) {
+            throw new IllegalArgumentException("factor must be at least 1");
+        }
+        if (!minTimeout.isPositive() || maxTimeout.compareTo(minTimeout) < 0) {
+            throw new IllegalArgumentException("invalid timeout bounds");
+        }
+        if (minSamples < 1) {
+            throw new IllegalArgumentException("minSamples must be at least 1");
+        }
+    }
+
+    /**
+     * Returns the timeout for the given test method, or <code>null</code> if
+     * not enough durations have been recorded for it.
+     */
+    public Duration repTimeout(TestDurationHistory history, TestMethod method) {
+        if (history.samples(method) < minSamples) {
+            return null;
+        }
+        var millis = Math.ceil(history.percentile(method, percentile).toMillis() * factor);
+        var timeout = Duration.ofMillis((long) millis);
+        if (timeout.compareTo(minTimeout) < 0) {
+            return minTimeout;
+        } else if (timeout.compareTo(maxTimeout) > 0) {
+            return maxTimeout;
+        } else {
+            return timeout;
+        }
+    }
+
+    /**
+     * Returns the timeouts for all test methods in the given test classes
+     * (including nested classes) for which enough durations have been
+     * recorded, in the form expected by {@link TestRunner.Task#repTimeouts()}.
+     */
+    public Map<String, Duration> repTimeouts(TestDurationHistory history,
+                                             List<String> testClassNames) {
+        var result = new HashMap<String, Duration>();
+        for (var method : history.methods()) {
+            var inTask = testClassNames.stream().anyMatch(c ->
+                    method.className().equals(c) || method.className().startsWith(c + "."));
+            if (inTask) {
+                var timeout = repTimeout(history, method);
+                if (timeout != null) {
+                    result.put(method.toString(), timeout);
+                }
+            }
+        }
+        return result;
+    }
+}
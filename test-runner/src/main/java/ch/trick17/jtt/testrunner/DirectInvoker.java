@@ -0,0 +1,238 @@
+package ch.trick17.jtt.testrunner;
+
+import ch.trick17.jtt.junitextensions.RepetitionTimeout;
+import org.junit.jupiter.api.*;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static java.lang.Thread.currentThread;
+import static java.lang.reflect.Modifier.*;
+
+/**
+ * Runs a single test method without the JUnit Platform. Starting the
+ * platform (engine discovery, extension registry, listeners, etc.) takes
+ * much longer than running a typical test method, which matters because
+ * every repetition of every test is run separately. This class supports only
+ * the most common subset of Jupiter: plain <code>@Test</code> methods in a
+ * simple test class, with at most one <code>@BeforeAll</code>,
+ * <code>@BeforeEach</code>, <code>@AfterEach</code>, and
+ * <code>@AfterAll</code> method each. Whenever a test uses anything else
+ * (parameterized tests, extensions, JUnit timeouts, inheritance, etc.),
+ * {@link #run(String, String, String)} returns <code>null</code> and the test
+ * must be run by the launcher.
+ */
+class DirectInvoker {
+
+    private static final Set<Class<? extends Annotation>> LIFECYCLE_ANNOTATIONS = Set.of(
+            BeforeAll.class, BeforeEach.class, AfterEach.class, AfterAll.class);
+    // annotations that do not affect how a single test method is executed
+    private static final Set<Class<? extends Annotation>> NEUTRAL_ANNOTATIONS = Set.of(
+            Order.class, DisplayName.class, Tag.class, Tags.class,
+            TestMethodOrder.class, TestClassOrder.class, RepetitionTimeout.class);
+
+    /**
+     * Runs the given test method (with the context class loader of the
+     * current thread) and returns the exceptions that JUnit would report for
+     * it, in the same order, or <code>null</code> if the test is not
+     * supported.
+     */
+    static List<Throwable> run(String className, String methodName, String paramTypes) {
+        if (!paramTypes.isEmpty() || junitConfigured()) {
+            return null;
+        }
+        Class<?> testClass;
+        try {
+            testClass = Class.forName(className, false, currentThread().getContextClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null; // let JUnit report the problem
+        }
+        var plan = plan(testClass, methodName);
+        return plan == null ? null : plan.execute();
+    }
+
+    private static boolean junitConfigured() {
+        // configuration parameters may enable extension auto-detection,
+        // default timeouts, etc.
+        return System.getProperties().stringPropertyNames().stream()
+                       .anyMatch(k -> k.startsWith("junit."))
+               || currentThread().getContextClassLoader()
+                       .getResource("junit-platform.properties") != null;
+    }
+
+    private record Plan(Class<?> testClass, Method test,
+                        Method beforeAll, Method beforeEach,
+                        Method afterEach, Method afterAll) {
+
+        /**
+         * Mimics the execution of a test method by Jupiter: Lifecycle methods
+         * are executed even if previous ones failed, and further exceptions
+         * are added as suppressed exceptions to the first one. Like with the
+         * launcher, an exception of the test comes before an exception of
+         * the test class.
+         */
+        List<Throwable> execute() {
+            var exceptions = new ArrayList<Throwable>();
+            var classException = invoke(beforeAll, null, null);
+            if (classException == null) {
+                Throwable testException;
+                Object instance = null;
+                try {
+                    var constructor = testClass.getDeclaredConstructor();
+                    constructor.setAccessible(true);
+                    instance = constructor.newInstance();
+                    testException = null;
+                } catch (InvocationTargetException e) {
+                    testException = unrecoverable(e.getCause());
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    // e.g., ExceptionInInitializerError
+                    testException = e;
+                }
+                if (instance != null) {
+                    testException = invoke(beforeEach, instance, testException);
+                    if (testException == null) {
+                        testException = invoke(test, instance, null);
+                    }
+                    testException = invoke(afterEach, instance, testException);
+                }
+                if (testException != null) {
+                    exceptions.add(testException);
+                }
+            }
+            classException = invoke(afterAll, null, classException);
+            if (classException != null) {
+                exceptions.add(classException);
+            }
+            return exceptions;
+        }
+
+        /**
+         * Invokes the given method (if not <code>null</code>) and returns the
+         * previous exception, with the new exception (if any) added as a
+         * suppressed exception, or the new exception if there was no
+         * previous one.
+         */
+        private static Throwable invoke(Method method, Object instance, Throwable previous) {
+            if (method == null) {
+                return previous;
+            }
+            Throwable exception = null;
+            try {
+                method.setAccessible(true);
+                method.invoke(instance);
+            } catch (InvocationTargetException e) {
+                exception = unrecoverable(e.getCause());
+            } catch (ReflectiveOperationException | LinkageError e) {
+                exception = e;
+            }
+            if (previous == null) {
+                return exception;
+            } else if (exception != null && exception != previous) {
+                previous.addSuppressed(exception);
+            }
+            return previous;
+        }
+
+        private static Throwable unrecoverable(Throwable e) {
+            // like JUnit, do not swallow OutOfMemoryErrors
+            if (e instanceof OutOfMemoryError oom) {
+                throw oom;
+            }
+            return e;
+        }
+    }
+
+    private static Plan plan(Class<?> testClass, String methodName) {
+        var modifiers = testClass.getModifiers();
+        if (testClass.isInterface() || testClass.isAnnotation() || testClass.isEnum()
+            || isAbstract(modifiers) || testClass.isLocalClass() || testClass.isAnonymousClass()
+            || (testClass.isMemberClass() && !isStatic(modifiers))
+            || testClass.getSuperclass() != Object.class
+            || testClass.getInterfaces().length > 0
+            || !onlyNeutral(testClass)) {
+            return null;
+        }
+        var constructors = testClass.getDeclaredConstructors();
+        if (constructors.length != 1 || constructors[0].getParameterCount() > 0) {
+            return null;
+        }
+        for (var field : testClass.getDeclaredFields()) {
+            if (field.getAnnotations().length > 0) {
+                return null; // e.g., @TempDir, @RegisterExtension, or @Score
+            }
+        }
+
+        Method test = null;
+        var lifecycle = new Method[LIFECYCLE_ANNOTATIONS.size()];
+        for (var method : testClass.getDeclaredMethods()) {
+            if (method.isSynthetic() || method.isBridge()) {
+                continue;
+            }
+            if (method.getName().equals(methodName) && method.getParameterCount() == 0) {
+                if (!method.isAnnotationPresent(Test.class) || !isSimple(method, Test.class)) {
+                    return null;
+                }
+                test = method;
+                continue;
+            }
+            for (var annotation : method.getAnnotations()) {
+                var type = annotation.annotationType();
+                if (LIFECYCLE_ANNOTATIONS.contains(type)) {
+                    var index = type == BeforeAll.class ? 0
+                            : type == BeforeEach.class ? 1
+                            : type == AfterEach.class ? 2 : 3;
+                    if (lifecycle[index] != null || !isSimple(method, type)) {
+                        return null;
+                    }
+                    lifecycle[index] = method;
+                } else if (!isKnown(type)) {
+                    // may be a composed annotation, e.g., for @BeforeEach, or
+                    // an extension that affects all methods
+                    return null;
+                }
+            }
+        }
+        return test == null ? null
+                : new Plan(testClass, test, lifecycle[0], lifecycle[1], lifecycle[2], lifecycle[3]);
+    }
+
+    /**
+     * Returns whether the given method has the given annotation and no other
+     * ones, except for neutral ones, and has the expected signature.
+     */
+    private static boolean isSimple(Method method, Class<? extends Annotation> annotation) {
+        var modifiers = method.getModifiers();
+        var mustBeStatic = annotation == BeforeAll.class || annotation == AfterAll.class;
+        for (var a : method.getAnnotations()) {
+            if (a.annotationType() != annotation && !NEUTRAL_ANNOTATIONS.contains(a.annotationType())) {
+                return false;
+            }
+        }
+        return method.getParameterCount() == 0
+               && method.getReturnType() == void.class
+               && !isPrivate(modifiers)
+               && !isAbstract(modifiers)
+               && isStatic(modifiers) == mustBeStatic;
+    }
+
+    private static boolean isKnown(Class<? extends Annotation> type) {
+        var pkg = type.getPackageName();
+        return pkg.startsWith("java.")
+               || NEUTRAL_ANNOTATIONS.contains(type)
+               || (pkg.startsWith("org.junit.jupiter") && !pkg.equals("org.junit.jupiter.api.extension"));
+    }
+
+    private static boolean onlyNeutral(AnnotatedElement element) {
+        for (var annotation : element.getAnnotations()) {
+            if (!NEUTRAL_ANNOTATIONS.contains(annotation.annotationType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,63 @@
+package ch.trick17.jtt.testrunner;
+
+import ch.trick17.jtt.memcompile.InMemClassFile;
+import javassist.bytecode.ClassFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Set;
+
+import static javassist.bytecode.ConstPool.*;
+
+/**
+ * Finds out whether code uses APIs that make it (likely) nondeterministic,
+ * such as random number generators, the system clock, or threads, by
+ * scanning the constant pools of its class files. Used by
+ * {@link RepetitionPolicy.Adaptive} to decide which tests need to be
+ * repeated more often.
+ */
+class NondeterminismScanner {
+
+    private static final Set<String> CLASSES = Set.of(
+            "java.util.Random",
+            "java.security.SecureRandom",
+            "java.util.concurrent.ThreadLocalRandom",
+            "java.util.SplittableRandom",
+            "java.util.random.RandomGenerator",
+            "java.util.concurrent.Executors",
+            "java.util.concurrent.CompletableFuture");
+
+    private static final Set<String> METHODS = Set.of(
+            "java.lang.Math.random",
+            "java.lang.StrictMath.random",
+            "java.lang.System.nanoTime",
+            "java.lang.System.currentTimeMillis",
+            "java.lang.System.identityHashCode",
+            "java.lang.Thread.start",
+            "java.lang.Thread.startVirtualThread",
+            "java.lang.Thread.ofPlatform",
+            "java.lang.Thread.ofVirtual",
+            "java.util.UUID.randomUUID",
+            "java.util.Collections.shuffle",
+            "java.util.stream.BaseStream.parallel",
+            "java.util.Collection.parallelStream");
+
+    static boolean usesNondeterministicApis(Iterable<InMemClassFile> classes) throws IOException {
+        for (var file : classes) {
+            var in = new DataInputStream(new ByteArrayInputStream(file.getContent()));
+            var pool = new ClassFile(in).getConstPool();
+            for (int i = 1; i < pool.getSize(); i++) {
+                var tag = pool.getTag(i);
+                if (tag == CONST_Class && CLASSES.contains(pool.getClassInfo(i))
+                    || tag == CONST_Methodref && METHODS.contains(
+                            pool.getMethodrefClassName(i) + "." + pool.getMethodrefName(i))
+                    || tag == CONST_InterfaceMethodref && METHODS.contains(
+                            pool.getInterfaceMethodrefClassName(i) + "." + pool.getInterfaceMethodrefName(i))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+package ch.trick17.jtt.testrunner;
+
+import java.time.Duration;
+
+/**
+ * Decides how many times a test is repeated. Repeating tests is the main way
+ * to detect nondeterministic submissions, but it is also the largest cost
+ * factor when running tests. After each repetition (or group of concurrent
+ * repetitions, see {@link TestRunner.Task#concurrentRepetitions()}), the test
+ * runner passes what it has observed so far to the policy, which decides
+ * whether to make more repetitions. The decision that ended the repetitions
+ * is reported in {@link TestResult#repetitionDecision()}.
+ * <p>
+ * Policies are sent to the forked VM along with the task, so custom policies
+ * must be serializable by Jackson (e.g., records).
+ */
+public interface RepetitionPolicy {
+
+    /**
+     * The policy that always makes the number of repetitions defined by the
+     * task (unless the test timeout is reached first). This is the default.
+     */
+    RepetitionPolicy FIXED = new Fixed();
+
+    /**
+     * An {@link Adaptive} policy with reasonable defaults: tests that
+     * produce the same outcome twice in a row within 100 ms each and do not
+     * use nondeterministic APIs are only repeated twice, while tests that
+     * look suspicious are repeated up to twice as often as the task defines.
+     */
+    RepetitionPolicy ADAPTIVE = new Adaptive(2, 2.0, Duration.ofMillis(100));
+
+    /**
+     * Returns whether to make more repetitions of a test, given the
+     * observations so far. Called only after at least one repetition.
+     */
+    Decision decide(Observations observations);
+
+    /**
+     * Returns the maximum number of repetitions this policy may ask for,
+     * given the number of repetitions defined by the task. Used to limit the
+     * number of repetitions that are run concurrently.
+     */
+    int maxRepetitions(int taskRepetitions);
+
+    /**
+     * Returns whether this policy reads
+     * {@link Observations#nondeterministicApis()}. Finding out whether code
+     * uses nondeterministic APIs requires scanning all of its classes, so the
+     * test runner skips this (and always passes <code>false</code>) for
+     * policies that do not need it.
+     */
+    default boolean readsNondeterministicApis() {
+        return true;
+    }
+
+    enum Decision {
+        /** Make another repetition. */
+        CONTINUE,
+        /** Stopped because the maximum number of repetitions was made. */
+        LIMIT_REACHED,
+        /** Stopped early because the test produced the same outcome consistently. */
+        STABLE,
+        /** Stopped early because the test turned out to be nondeterministic already. */
+        NONDETERMINISTIC,
+        /** Stopped because the test timeout was reached (decided by the test runner). */
+        TEST_TIMEOUT
+    }
+
+    /**
+     * What has been observed in the repetitions of a test so far.
+     *
+     * @param taskRepetitions     the number of repetitions defined by the task
+     * @param repsMade            the number of repetitions made so far
+     * @param passedReps          the number of repetitions that passed
+     * @param distinctOutcomes    the number of distinct outcomes (passed, or
+     *                            failed with a specific set of exceptions,
+     *                            timeout, etc.)
+     * @param nondeterministicApis whether the code under test or the tests
+     *                            use APIs like {@link java.util.Random} or
+     *                            {@link System#nanoTime()}
+     * @param minRepTime          the shortest duration of a repetition, not
+     *                            counting the first one, which includes
+     *                            warm-up (zero if no other was made yet)
+     * @param maxRepTime          the longest duration of a repetition, not
+     *                            counting the first one (zero if no other
+     *                            was made yet)
+     */
+    record Observations(
+            int taskRepetitions,
+            int repsMade,
+            int passedReps,
+            int distinctOutcomes,
+            boolean nondeterministicApis,
+            Duration minRepTime,
+            Duration maxRepTime) {
+
+        public boolean nondeterministic() {
+            return passedReps > 0 && passedReps < repsMade;
+        }
+    }
+
+    record Fixed() implements RepetitionPolicy {
+        public Decision decide(Observations obs) {
+            return obs.repsMade() < obs.taskRepetitions()
+                    ? Decision.CONTINUE
+                    : Decision.LIMIT_REACHED;
+        }
+
+        public int maxRepetitions(int taskRepetitions) {
+            return taskRepetitions;
+        }
+
+        public boolean readsNondeterministicApis() {
+            return false;
+        }
+    }
+
+    /**
+     * A policy that adapts the number of repetitions to what is observed. A
+     * test is considered <em>stable</em> if all repetitions so far produced
+     * the same outcome, took at most <code>fastRepTime</code>, and the code
+     * does not use nondeterministic APIs. Stable tests are only repeated
+     * <code>minReps</code> times. A test is <em>suspicious</em> if it uses
+     * nondeterministic APIs, produced different outcomes (e.g., different
+     * exceptions), or if its duration varied considerably; suspicious tests
+     * are repeated up to <code>extensionFactor</code> times as often as the
+     * task defines. All other tests are repeated as often as the task
+     * defines. Once a test has both passed and failed, it is known to be
+     * nondeterministic and is not repeated any more.
+     */
+    record Adaptive(int minReps, double extensionFactor, Duration fastRepTime)
+            implements RepetitionPolicy {
+
+        public Adaptive {
+            if (minReps < 1) {
+                throw new IllegalArgumentException("minReps must be at least 1");
+            }
+            if (extensionFactor < 1) {
+                throw new IllegalArgumentException("extensionFactor must be at least 1");
+            }
+        }
+
+        public Decision decide(Observations obs) {
+            if (obs.nondeterministic()) {
+                return Decision.NONDETERMINISTIC;
+            }
+            var suspicious = obs.nondeterministicApis()
+                    || obs.distinctOutcomes() > 1
+                    || obs.maxRepTime().compareTo(obs.minRepTime().multipliedBy(3)) > 0
+                       && obs.maxRepTime().compareTo(fastRepTime) > 0;
+            if (suspicious) {
+                return obs.repsMade() < maxRepetitions(obs.taskRepetitions())
+                        ? Decision.CONTINUE
+                        : Decision.LIMIT_REACHED;
+            } else if (obs.repsMade() >= Math.min(minReps, obs.taskRepetitions())
+                       && obs.maxRepTime().compareTo(fastRepTime) <= 0) {
+                return Decision.STABLE;
+            } else {
+                return obs.repsMade() < obs.taskRepetitions()
+                        ? Decision.CONTINUE
+                        : Decision.LIMIT_REACHED;
+            }
+        }
+
+        public int maxRepetitions(int taskRepetitions) {
+            return (int) Math.ceil(taskRepetitions * extensionFactor);
+        }
+    }
+}
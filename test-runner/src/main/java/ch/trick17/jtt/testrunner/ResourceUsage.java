@@ -0,0 +1,33 @@
+package ch.trick17.jtt.testrunner;
+
+import java.time.Duration;
+
+/**
+ * The resources used by one or more repetitions of a test. The wall time
+ * includes the overhead of the sandbox and JUnit, while the CPU time and the
+ * allocated bytes are measured for the thread that runs the test (not for
+ * threads started by the test). The latter two are only available for
+ * repetitions that completed, i.e., did not time out, run out of memory,
+ * etc.; for other repetitions, they are zero.
+ */
+public record ResourceUsage(
+        Duration wallTime,
+        Duration cpuTime,
+        long allocatedBytes) {
+
+    public static final ResourceUsage NONE = new ResourceUsage(Duration.ZERO, Duration.ZERO, 0);
+
+    public ResourceUsage plus(ResourceUsage other) {
+        return new ResourceUsage(wallTime.plus(other.wallTime),
+                cpuTime.plus(other.cpuTime),
+                allocatedBytes + other.allocatedBytes);
+    }
+
+    public static ResourceUsage total(Iterable<ResourceUsage> usages) {
+        var total = NONE;
+        for (var usage : usages) {
+            total = total.plus(usage);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,453 @@
+package ch.trick17.jtt.testrunner;
+
+import ch.trick17.jtt.junitextensions.RepetitionTimeout;
+import ch.trick17.jtt.memcompile.InMemClassFile;
+import ch.trick17.jtt.memcompile.InMemClassLoader;
+import ch.trick17.jtt.sandbox.CustomCxtClassLoaderRunner;
+import javassist.bytecode.*;
+import javassist.bytecode.annotation.*;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Timeout;
+import org.junit.platform.commons.PreconditionViolationException;
+import org.junit.platform.commons.support.AnnotationSupport;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+
+import static java.lang.Thread.currentThread;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Comparator.comparingInt;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+import static org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder.request;
+
+/**
+ * Finds the test methods of a task, in the order in which they are run.
+ * Discovery with JUnit requires loading all test classes (and their
+ * dependencies) in a new class loader, only to load them again in the
+ * sandbox later. To avoid this, the class files of simple test classes are
+ * scanned directly; JUnit is only used for test classes that use features
+ * that the scanner does not support, like <code>@Nested</code> classes,
+ * inheritance, or custom display names. Either way, the result is cached,
+ * since typically, the same tests are run for many submissions. The cache
+ * key is a digest of the test class files (and the classes they inherit from
+ * or contain), so changes to the code under test do not affect the result.
+ */
+class TestDiscovery {
+
+    /**
+     * A test method, together with the duration of a {@link RepetitionTimeout}
+     * and a JUnit {@link Timeout} annotation that applies to it (or
+     * <code>null</code> if there is none).
+     */
+    record DiscoveredTest(MethodSource source, Duration repetitionTimeout, Duration junitTimeout) {}
+
+    static final Map<String, String> ORDER_CONFIG = Map.of(
+            "junit.jupiter.testclass.order.default",
+            "ch.trick17.jtt.testrunner.OrderAnnotationThenDisplayName",
+            "junit.jupiter.testmethod.order.default",
+            "ch.trick17.jtt.testrunner.OrderAnnotationThenDisplayName");
+
+    private static final int CACHE_SIZE = 256;
+    private static final Map<String, List<DiscoveredTest>> cache =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, List<DiscoveredTest>> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    private static final String API = "org.junit.jupiter.api.";
+    private static final Set<String> TEST_ANNOTATIONS = Set.of(
+            API + "Test",
+            API + "RepeatedTest",
+            API + "TestTemplate",
+            API + "TestFactory",
+            "org.junit.jupiter.params.ParameterizedTest");
+    // annotations that do not affect which methods are found or their order
+    private static final Set<String> NEUTRAL_ANNOTATIONS = Set.of(
+            API + "BeforeEach", API + "AfterEach", API + "BeforeAll", API + "AfterAll",
+            API + "Disabled", API + "Tag", API + "Tags", API + "Order", API + "Timeout",
+            API + "TestInstance", API + "extension.ExtendWith",
+            RepetitionTimeout.class.getName());
+
+    static List<DiscoveredTest> discover(TestRunner.Task task) throws IOException {
+        var key = key(task);
+        synchronized (cache) {
+            var tests = cache.get(key);
+            if (tests != null) {
+                return tests;
+            }
+        }
+        // discovery is idempotent, so no need to hold the lock meanwhile
+        var tests = scan(task);
+        if (tests == null) {
+            tests = discoverWithJUnit(task);
+        }
+        synchronized (cache) {
+            cache.put(key, tests);
+        }
+        return tests;
+    }
+
+    /**
+     * Returns a digest of everything that affects the result of discovery,
+     * except for the code under test (since test classes are not supposed to
+     * inherit from it).
+     */
+    private static String key(TestRunner.Task task) throws IOException {
+        try {
+            var sha = MessageDigest.getInstance("SHA-256");
+            for (var entry : new TreeMap<>(ORDER_CONFIG).entrySet()) {
+                sha.update((entry.getKey() + "=" + entry.getValue() + "\n").getBytes(UTF_8));
+            }
+            for (var entry : junitSystemProperties().entrySet()) {
+                sha.update((entry.getKey() + "=" + entry.getValue() + "\n").getBytes(UTF_8));
+            }
+            for (var name : task.testClassNames()) {
+                sha.update((name + "\n").getBytes(UTF_8));
+            }
+            for (var path : task.sandboxedCode().with(task.supportCode()).fileClassPath()) {
+                sha.update((path + "\n").getBytes(UTF_8));
+            }
+            for (var file : testClassFiles(task)) {
+                sha.update((file.getClassName() + "\n").getBytes(UTF_8));
+                sha.update(file.getContent());
+            }
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // SHA-256 is supported on all platforms
+        }
+    }
+
+    /**
+     * Returns the in-memory class files of the test classes, their nested
+     * classes, and the (in-memory) classes and interfaces they inherit from.
+     */
+    private static Collection<InMemClassFile> testClassFiles(TestRunner.Task task) throws IOException {
+        var files = new HashMap<String, InMemClassFile>();
+        for (var file : task.sandboxedCode().with(task.supportCode()).memClassPath()) {
+            files.putIfAbsent(file.getClassName(), file);
+        }
+        var result = new TreeMap<String, InMemClassFile>();
+        var todo = new ArrayDeque<>(task.testClassNames());
+        while (!todo.isEmpty()) {
+            var name = todo.remove();
+            if (result.containsKey(name) || !files.containsKey(name)) {
+                continue;
+            }
+            var file = files.get(name);
+            result.put(name, file);
+            var classFile = parse(file);
+            todo.add(classFile.getSuperclass());
+            todo.addAll(List.of(classFile.getInterfaces()));
+            for (var other : files.keySet()) {
+                if (other.startsWith(name + "$")) {
+                    todo.add(other);
+                }
+            }
+        }
+        return result.values();
+    }
+
+    /**
+     * Finds the test methods by scanning the class files of the test
+     * classes, without loading them. Returns <code>null</code> if one of the
+     * test classes uses a feature that is not supported, in which case
+     * {@link #discoverWithJUnit(TestRunner.Task)} must be used.
+     */
+    static List<DiscoveredTest> scan(TestRunner.Task task) throws IOException {
+        var files = new HashMap<String, InMemClassFile>();
+        for (var file : task.sandboxedCode().with(task.supportCode()).memClassPath()) {
+            files.putIfAbsent(file.getClassName(), file);
+        }
+        if (junitConfigured(task)) {
+            return null; // may change the display names or the ordering
+        }
+
+        var classes = new ArrayList<ScannedClass>();
+        for (var name : task.testClassNames()) {
+            var file = files.get(name);
+            if (file == null || name.contains("$")) {
+                return null;
+            }
+            var scanned = scanClass(parse(file));
+            if (scanned == null) {
+                return null;
+            }
+            classes.add(scanned);
+        }
+        classes.sort(comparingInt(ScannedClass::order)
+                .thenComparing(ScannedClass::displayName));
+
+        var result = new ArrayList<DiscoveredTest>();
+        for (var c : classes) {
+            result.addAll(c.tests());
+        }
+        return result;
+    }
+
+    private record ScannedClass(int order, String displayName, List<DiscoveredTest> tests) {}
+
+    private record ScannedMethod(int order, String displayName, DiscoveredTest test) {}
+
+    private static ScannedClass scanClass(ClassFile classFile) {
+        var flags = classFile.getAccessFlags();
+        if ((flags & (AccessFlag.INTERFACE | AccessFlag.ABSTRACT | AccessFlag.ANNOTATION)) != 0
+            || !classFile.getSuperclass().equals("java.lang.Object")
+            || classFile.getInterfaces().length > 0
+            || hasMemberClasses(classFile)) {
+            return null;
+        }
+        var classAnnotations = annotations(classFile.getAttribute(AnnotationsAttribute.visibleTag));
+        if (classAnnotations == null) {
+            return null;
+        }
+        var classRepTimeout = duration(classAnnotations.get(RepetitionTimeout.class.getName()));
+        var classJunitTimeout = duration(classAnnotations.get(Timeout.class.getName()));
+
+        var methods = new ArrayList<ScannedMethod>();
+        for (var method : classFile.getMethods()) {
+            var methodFlags = method.getAccessFlags();
+            if ((methodFlags & (AccessFlag.SYNTHETIC | AccessFlag.BRIDGE)) != 0) {
+                continue;
+            }
+            var annotations = annotations(method.getAttribute(AnnotationsAttribute.visibleTag));
+            if (annotations == null) {
+                return null;
+            }
+            var testAnnotations = annotations.keySet().stream()
+                    .filter(TEST_ANNOTATIONS::contains)
+                    .toList();
+            if (testAnnotations.isEmpty()) {
+                continue;
+            }
+            // let JUnit deal with invalid test methods
+            var isVoid = method.getDescriptor().endsWith(")V");
+            var isFactory = testAnnotations.contains(API + "TestFactory");
+            if (testAnnotations.size() > 1
+                || (methodFlags & (AccessFlag.STATIC | AccessFlag.PRIVATE | AccessFlag.ABSTRACT)) != 0
+                || isVoid == isFactory) {
+                return null;
+            }
+
+            var paramTypes = parameterTypes(method.getDescriptor());
+            var simpleNames = simpleParameterTypes(method.getDescriptor());
+            var source = MethodSource.from(classFile.getName(), method.getName(),
+                    String.join(", ", paramTypes));
+            var repTimeout = duration(annotations.get(RepetitionTimeout.class.getName()));
+            var junitTimeout = duration(annotations.get(Timeout.class.getName()));
+            var test = new DiscoveredTest(source,
+                    repTimeout != null ? repTimeout : classRepTimeout,
+                    junitTimeout != null ? junitTimeout : classJunitTimeout);
+            methods.add(new ScannedMethod(order(annotations),
+                    method.getName() + "(" + String.join(", ", simpleNames) + ")", test));
+        }
+        methods.sort(comparingInt(ScannedMethod::order)
+                .thenComparing(ScannedMethod::displayName));
+
+        var name = classFile.getName();
+        return new ScannedClass(order(classAnnotations), name.substring(name.lastIndexOf('.') + 1),
+                methods.stream().map(ScannedMethod::test).toList());
+    }
+
+    /**
+     * Returns whether the class has non-static member classes, which may be
+     * <code>@Nested</code> test classes.
+     */
+    private static boolean hasMemberClasses(ClassFile classFile) {
+        var inner = (InnerClassesAttribute) classFile.getAttribute(InnerClassesAttribute.tag);
+        if (inner != null) {
+            for (int i = 0; i < inner.tableLength(); i++) {
+                if (classFile.getName().equals(inner.outerClass(i))
+                    && (inner.accessFlags(i) & AccessFlag.STATIC) == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the given annotations by type name, or <code>null</code> if
+     * there is one that is not known to be irrelevant for discovery (e.g.,
+     * because it might be a meta-annotation for <code>@Test</code>).
+     */
+    private static Map<String, javassist.bytecode.annotation.Annotation> annotations(
+            AttributeInfo attribute) {
+        var result = new HashMap<String, javassist.bytecode.annotation.Annotation>();
+        if (attribute instanceof AnnotationsAttribute annotations) {
+            for (var annotation : annotations.getAnnotations()) {
+                var type = annotation.getTypeName();
+                if (!TEST_ANNOTATIONS.contains(type) && !NEUTRAL_ANNOTATIONS.contains(type)
+                    && !type.startsWith("org.junit.jupiter.params.provider.")) {
+                    return null;
+                }
+                result.put(type, annotation);
+            }
+        }
+        return result;
+    }
+
+    private static int order(Map<String, javassist.bytecode.annotation.Annotation> annotations) {
+        var order = annotations.get(Order.class.getName());
+        return order == null
+                ? Order.DEFAULT
+                : ((IntegerMemberValue) order.getMemberValue("value")).getValue();
+    }
+
+    /**
+     * Returns the duration defined by a {@link Timeout} or
+     * {@link RepetitionTimeout} annotation.
+     */
+    private static Duration duration(javassist.bytecode.annotation.Annotation annotation) {
+        if (annotation == null) {
+            return null;
+        }
+        var value = ((LongMemberValue) annotation.getMemberValue("value")).getValue();
+        var unit = annotation.getMemberValue("unit") instanceof EnumMemberValue e
+                ? java.util.concurrent.TimeUnit.valueOf(e.getValue())
+                : SECONDS;
+        return Duration.of(value, unit.toChronoUnit());
+    }
+
+    /**
+     * Returns the simple names of the parameter types of the given method
+     * descriptor, as used in the display name of a test method.
+     */
+    private static List<String> simpleParameterTypes(String descriptor) {
+        var params = Descriptor.toString(descriptor); // e.g., "(int[],java.lang.String)"
+        if (params.equals("()")) {
+            return List.of();
+        }
+        return Arrays.stream(params.substring(1, params.length() - 1).split(","))
+                .map(t -> t.substring(Math.max(t.lastIndexOf('.'), t.lastIndexOf('$')) + 1))
+                .toList();
+    }
+
+    /**
+     * Returns the names of the parameter types of the given method
+     * descriptor, in the form used by {@link MethodSource} (i.e., as returned
+     * by {@link Class#getName()}).
+     */
+    private static List<String> parameterTypes(String descriptor) {
+        var result = new ArrayList<String>();
+        var i = 1; // skip '('
+        while (descriptor.charAt(i) != ')') {
+            var end = i;
+            while (descriptor.charAt(end) == '[') {
+                end++;
+            }
+            end = descriptor.charAt(end) == 'L' ? descriptor.indexOf(';', end) + 1 : end + 1;
+            var param = descriptor.substring(i, end);
+            result.add(param.startsWith("[")
+                    ? param.replace('/', '.') // same as Class.getName()
+                    : Descriptor.toClassName(param));
+            i = end;
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether JUnit is configured by system properties or a
+     * <code>junit-platform.properties</code> file (like in
+     * {@link DirectInvoker}).
+     */
+    private static boolean junitConfigured(TestRunner.Task task) throws IOException {
+        if (!junitSystemProperties().isEmpty()) {
+            return true;
+        }
+        var urls = new ArrayList<URL>();
+        for (var path : task.sandboxedCode().with(task.supportCode()).fileClassPath()) {
+            urls.add(path.toUri().toURL());
+        }
+        try (var loader = new URLClassLoader(urls.toArray(URL[]::new),
+                currentThread().getContextClassLoader())) {
+            return loader.getResource("junit-platform.properties") != null;
+        }
+    }
+
+    private static SortedMap<String, String> junitSystemProperties() {
+        var properties = new TreeMap<String, String>();
+        for (var key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("junit.")) {
+                properties.put(key, System.getProperty(key));
+            }
+        }
+        return properties;
+    }
+
+    private static ClassFile parse(InMemClassFile file) throws IOException {
+        return new ClassFile(new DataInputStream(new ByteArrayInputStream(file.getContent())));
+    }
+
+    /**
+     * Finds the test methods using JUnit. To discover test classes, JUnit
+     * needs to <em>load</em> them, so we create a custom class loader and set
+     * it as the "context class loader" of the current thread. It delegates to
+     * the current context class loader for all classes except those given by
+     * the task.
+     */
+    static List<DiscoveredTest> discoverWithJUnit(TestRunner.Task task) throws IOException {
+        var loader = new InMemClassLoader(task.sandboxedCode().with(task.supportCode()),
+                currentThread().getContextClassLoader());
+        try (var runner = new CustomCxtClassLoaderRunner(loader)) {
+            return runner.run(() -> {
+                var launcher = LauncherFactory.create();
+                var selectors = task.testClassNames().stream()
+                        .map(c -> selectClass(c))
+                        .toList();
+                var classesReq = request()
+                        .configurationParameters(ORDER_CONFIG)
+                        .selectors(selectors);
+                var testPlan = launcher.discover(classesReq.build());
+                return testPlan.getRoots().stream()
+                        .flatMap(id -> testPlan.getDescendants(id).stream())
+                        .flatMap(id -> id.getSource().stream())
+                        .filter(s -> s instanceof MethodSource)
+                        .map(s -> withTimeouts((MethodSource) s))
+                        .toList();
+            });
+        }
+    }
+
+    /**
+     * Reads the timeout annotations of the given method, its class, or one of
+     * its enclosing classes. Must be called with the context class loader
+     * that can load the test classes.
+     */
+    private static DiscoveredTest withTimeouts(MethodSource source) {
+        Method method;
+        try {
+            method = source.getJavaMethod();
+        } catch (PreconditionViolationException e) {
+            return new DiscoveredTest(source, null, null);
+        }
+        var repTimeout = findAnnotation(method, source.getJavaClass(), RepetitionTimeout.class)
+                .map(a -> Duration.of(a.value(), a.unit().toChronoUnit()))
+                .orElse(null);
+        var junitTimeout = findAnnotation(method, source.getJavaClass(), Timeout.class)
+                .map(a -> Duration.of(a.value(), a.unit().toChronoUnit()))
+                .orElse(null);
+        return new DiscoveredTest(source, repTimeout, junitTimeout);
+    }
+
+    private static <A extends Annotation> Optional<A> findAnnotation(
+            Method method, Class<?> testClass, Class<A> annotationType) {
+        var annotation = AnnotationSupport.findAnnotation(method, annotationType);
+        for (var c = testClass; annotation.isEmpty() && c != null; c = c.getEnclosingClass()) {
+            annotation = AnnotationSupport.findAnnotation(c, annotationType);
+        }
+        return annotation;
+    }
+}
@@ -0,0 +1,165 @@
+package ch.trick17.jtt.testrunner;
+
+import ch.trick17.jtt.testrunner.TestRunner.Result;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Keeps a histogram of the durations of the repetitions of each test method,
+ * from which {@link AdaptiveTimeouts} derives per-test timeouts. The history
+ * is typically filled by grading the reference solution first, but it also
+ * learns from all submissions graded afterwards. It can be persisted to a
+ * file, so that it is available in later grading runs.
+ * <p>
+ * To keep the history compact, durations are recorded in logarithmic buckets,
+ * each about 19% wider than the previous one. Percentiles are reported as the
+ * upper bound of the respective bucket, so they are slightly overestimated.
+ * This class is thread-safe.
+ */
+public class TestDurationHistory {
+
+    private static final double BUCKET_BASE = Math.pow(2, 0.25);
+
+    private final Path file;
+    private final Map<TestMethod, SortedMap<Integer, Long>> histograms = new HashMap<>();
+
+    /**
+     * Creates an empty history that is not persisted.
+     */
+    public TestDurationHistory() {
+        this.file = null;
+    }
+
+    /**
+     * Creates a history that is persisted in the given file. If the file
+     * exists, the history is loaded from it. Call {@link #save()} to write
+     * the history back to the file.
+     */
+    public TestDurationHistory(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            for (var line : Files.readAllLines(file, UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                var parts = line.split("\t");
+                if (parts.length != 3) {
+                    throw new IOException("invalid line in " + file + ": " + line);
+                }
+                var histogram = new TreeMap<Integer, Long>();
+                for (var entry : parts[2].split(" ")) {
+                    var bucketCount = entry.split(":");
+                    try {
+                        histogram.put(Integer.parseInt(bucketCount[0]),
+                                Long.parseLong(bucketCount[1]));
+                    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                        throw new IOException("invalid line in " + file + ": " + line, e);
+                    }
+                }
+                histograms.put(new TestMethod(parts[0], parts[1]), histogram);
+            }
+        }
+    }
+
+    public synchronized void record(TestMethod method, Duration duration) {
+        var millis = Math.max(1, duration.toMillis());
+        var bucket = (int) Math.ceil(Math.log(millis) / Math.log(BUCKET_BASE));
+        histograms.computeIfAbsent(method, m -> new TreeMap<>())
+                .merge(bucket, 1L, Long::sum);
+    }
+
+    /**
+     * Records the wall time of all repetitions of the tests in the given
+     * result. Only tests that passed are considered, since the durations of
+     * failed tests (e.g., because of timeouts) say little about how long
+     * the test legitimately takes.
+     */
+    public void record(Result result) {
+        for (var testResult : result.testResults()) {
+            if (testResult.passed()) {
+                for (var usage : testResult.repResourceUsage()) {
+                    record(testResult.method(), usage.wallTime());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the test methods for which durations have been recorded.
+     */
+    public synchronized Set<TestMethod> methods() {
+        return Set.copyOf(histograms.keySet());
+    }
+
+    /**
+     * Returns the number of durations recorded for the given test method.
+     */
+    public synchronized long samples(TestMethod method) {
+        var histogram = histograms.get(method);
+        return histogram == null
+                ? 0
+                : histogram.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Returns the given percentile (between 0 and 1) of the durations
+     * recorded for the given test method, or <code>null</code> if there are
+     * none.
+     */
+    public synchronized Duration percentile(TestMethod method, double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        }
+        var histogram = histograms.get(method);
+        if (histogram == null) {
+            return null;
+        }
+        var rank = Math.max(1, (long) Math.ceil(percentile * samples(method)));
+        var count = 0L;
+        for (var entry : histogram.entrySet()) {
+            count += entry.getValue();
+            if (count >= rank) {
+                return upperBound(entry.getKey());
+            }
+        }
+        return upperBound(histogram.lastKey());
+    }
+
+    private static Duration upperBound(int bucket) {
+        return Duration.ofMillis((long) Math.ceil(Math.pow(BUCKET_BASE, bucket)));
+    }
+
+    /**
+     * Writes the history to the file it was loaded from (atomically, so the
+     * file is not corrupted if writing is interrupted).
+     */
+    public synchronized void save() throws IOException {
+        if (file == null) {
+            throw new IllegalStateException("history is not persisted");
+        }
+        var lines = new ArrayList<String>();
+        for (var entry : histograms.entrySet()) {
+            var buckets = new StringJoiner(" ");
+            entry.getValue().forEach((bucket, count) -> buckets.add(bucket + ":" + count));
+            lines.add(entry.getKey().className() + "\t" + entry.getKey().name() + "\t" + buckets);
+        }
+        lines.sort(null);
+        var dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        var temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, lines, UTF_8);
+            Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -12,10 +12,20 @@ public record TestResult(
         boolean timeout,
         boolean outOfMemory,
         List<String> illegalOps,
-        List<Double> scores) {
+        List<Double> scores,
+        RepetitionPolicy.Decision repetitionDecision,
+        List<ResourceUsage> repResourceUsage) {
 
     public TestResult with(List<ExceptionDescription> exceptions) {
         return new TestResult(method, passed, exceptions, nonDeterm, repsMade,
-                incompleteReps, timeout, outOfMemory, illegalOps, scores);
+                incompleteReps, timeout, outOfMemory, illegalOps, scores, repetitionDecision,
+                repResourceUsage);
+    }
+
+    /**
+     * Returns the resources used by all repetitions of this test together.
+     */
+    public ResourceUsage resourceUsage() {
+        return ResourceUsage.total(repResourceUsage);
     }
 }
@@ -1,14 +1,22 @@
 package ch.trick17.jtt.testrunner;
 
+import ch.trick17.jtt.junitextensions.RepetitionTimeout;
 import ch.trick17.jtt.memcompile.ClassPath;
-import ch.trick17.jtt.memcompile.InMemClassLoader;
-import ch.trick17.jtt.sandbox.CustomCxtClassLoaderRunner;
 import ch.trick17.jtt.sandbox.Sandbox;
 import ch.trick17.jtt.sandbox.Whitelist;
-import ch.trick17.jtt.testrunner.forkedvm.ForkedVmClient;
+import ch.trick17.jtt.testrunner.RepetitionPolicy.Decision;
+import ch.trick17.jtt.testrunner.RepetitionPolicy.Observations;
+import ch.trick17.jtt.testrunner.forkedvm.ForkedVmPool;
+import ch.trick17.jtt.testrunner.forkedvm.ForkedVmServer;
+import ch.trick17.jtt.testrunner.forkedvm.MethodCall;
+import ch.trick17.jtt.testrunner.forkedvm.RecyclePolicy;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Timeout;
 import org.junit.platform.engine.TestExecutionResult;
 import org.junit.platform.engine.reporting.ReportEntry;
 import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherSession;
 import org.junit.platform.launcher.TestExecutionListener;
 import org.junit.platform.launcher.TestIdentifier;
 import org.junit.platform.launcher.core.LauncherFactory;
@@ -18,7 +26,11 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.locks.StampedLock;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static ch.trick17.jtt.junitextensions.internal.ScoreExtension.SCORE_KEY;
 import static ch.trick17.jtt.sandbox.InputMode.EMPTY;
@@ -27,10 +39,10 @@ import static ch.trick17.jtt.sandbox.Sandbox.Result.Kind.*;
 import static java.lang.Double.parseDouble;
 import static java.lang.String.join;
 import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
 import static java.lang.Thread.currentThread;
+import static java.lang.management.ManagementFactory.getThreadMXBean;
 import static java.util.Collections.emptyList;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
 import static org.junit.platform.engine.discovery.DiscoverySelectors.selectMethod;
 import static org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder.request;
 import static org.slf4j.LoggerFactory.getLogger;
@@ -39,195 +51,731 @@ public class TestRunner implements Closeable {
 
     private static final Logger logger = getLogger(TestRunner.class);
 
+    private static final int DEFAULT_VM_CACHE_SIZE = 3;
+    // added to JUnit @Timeout values for the overhead of running a test
+    private static final Duration JUNIT_TIMEOUT_SLACK = Duration.ofSeconds(1);
+
+    // limits the number of tasks (and parallel test workers, see doRun) running at
+    // the same time in a (forked) VM, since too many of them would compete for
+    // the CPUs and exceed their timeouts
+    private static final Semaphore runningTasks =
+            new Semaphore(Runtime.getRuntime().availableProcessors());
+
     private final List<String> vmArgs;
-    private ForkedVmClient forkedVm;
-    private final StampedLock lock = new StampedLock();
+    private final int vmPoolSize;
+    private final int vmCacheSize;
+    private final RecyclePolicy recyclePolicy;
+    // access-ordered, so the first entry is always the least recently used one
+    private final LinkedHashMap<List<String>, CachedVms> forkedVms =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<CachedVms> evictedVms = new HashSet<>();
 
     public TestRunner() {
         this(emptyList());
     }
 
     public TestRunner(List<String> vmArgs) {
+        this(vmArgs, 1);
+    }
+
+    /**
+     * Creates a test runner that runs tests in a pool of (at most)
+     * <code>vmPoolSize</code> forked VMs. Concurrent calls to
+     * {@link #run(Task)} are distributed among these VMs, with each call being
+     * dispatched to the least-loaded VM.
+     */
+    public TestRunner(List<String> vmArgs, int vmPoolSize) {
+        this(vmArgs, vmPoolSize, DEFAULT_VM_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a test runner that runs tests in pools of (at most)
+     * <code>vmPoolSize</code> forked VMs, as described in
+     * {@link #TestRunner(List, int)}. Since tasks may require different VM
+     * arguments, a separate pool is kept for each distinct list of arguments.
+     * At most <code>vmCacheSize</code> such pools are kept running; when a
+     * task requires another one, the least recently used pool is shut down
+     * (as soon as no more tasks are running in it).
+     */
+    public TestRunner(List<String> vmArgs, int vmPoolSize, int vmCacheSize) {
+        this(vmArgs, vmPoolSize, vmCacheSize, RecyclePolicy.DEFAULT);
+    }
+
+    /**
+     * Creates a test runner as described in
+     * {@link #TestRunner(List, int, int)}, which replaces a forked VM by a new
+     * one as soon as it crosses one of the thresholds of the given recycle
+     * policy (e.g., because the classes of many tasks have filled up its
+     * metaspace). By default, {@link RecyclePolicy#DEFAULT} is used.
+     */
+    public TestRunner(List<String> vmArgs, int vmPoolSize, int vmCacheSize,
+                      RecyclePolicy recyclePolicy) {
+        if (vmPoolSize <= 0) {
+            throw new IllegalArgumentException("VM pool size must be positive");
+        }
+        if (vmCacheSize <= 0) {
+            throw new IllegalArgumentException("VM cache size must be positive");
+        }
         this.vmArgs = vmArgs;
+        this.vmPoolSize = vmPoolSize;
+        this.vmCacheSize = vmCacheSize;
+        this.recyclePolicy = recyclePolicy;
     }
 
     public Result run(Task task) throws IOException {
+        return run(task, result -> {});
+    }
+
+    /**
+     * Runs the given task, like {@link #run(Task)}, and passes the result for
+     * each test method to the given listener as soon as it is available, e.g.,
+     * to show the progress of long-running tasks. If the forked VM dies while
+     * running the task (e.g., because it crashed or was killed), the task is
+     * resumed in a new VM from the first unfinished test method, so the
+     * results for the other test methods are not lost (and are passed to the
+     * listener only once).
+     */
+    public Result run(Task task, Consumer<TestResult> listener) throws IOException {
         if (System.getProperties().containsKey("test-runner.noFork")) {
-            return doRun(task);
+            return doRun(task, 0, listener);
         } else {
             var newVmArgs = new ArrayList<>(vmArgs);
             newVmArgs.addAll(task.vmArgs);
 
-            // If the forked VM is already running with the same VM args, just
-            // use it. Multiple threads can do this concurrently. But if a new
-            // VM needs to be forked, only one thread should do it, and not
-            // while the current VM still being used by other threads (we don't
-            // want multiple forked VMs running). We use a read-write lock to
-            // enforce this.
-            var stamp = lock.readLock();
+            // appended to by the reader thread of the connection, while the
+            // resume index is taken by the thread that (re-)starts the call
+            var finished = Collections.synchronizedList(new ArrayList<TestResult>());
+            var vms = acquireVms(newVmArgs);
             try {
-                while (forkedVm == null || !forkedVm.getVmArgs().equals(newVmArgs)) {
-                    // release the read lock and try to acquire the write lock
-                    lock.unlockRead(stamp);
-                    try {
-                        stamp = lock.tryWriteLock(10, MILLISECONDS);
-                    } catch (InterruptedException ignored) {}
-
-                    if (stamp == 0) {
-                        // could not get the write lock, so get the read lock
-                        // again and retry
-                        stamp = lock.readLock();
-                    } else {
-                        // got the write lock, so fork the VM
-                        close();
-                        logger.info("Forking test runner VM with args: {}", join(" ", newVmArgs));
-                        forkedVm = new ForkedVmClient(newVmArgs, List.of(TestRunnerJacksonModule.class));
-                    }
+                // all test results are sent as partial results (see doRun),
+                // which are passed on before the final response, so the
+                // result of the call itself does not contain any
+                vms.pool.runInForkedVm(() -> new MethodCall(TestRunner.class.getName(), "doRun",
+                        List.of(Task.class.getName(), "int"), List.of(task, finished.size())),
+                        Result.class, partial -> {
+                            finished.add((TestResult) partial);
+                            listener.accept((TestResult) partial);
+                        });
+                synchronized (finished) {
+                    return new Result(new ArrayList<>(finished));
                 }
-                // in case we have the write lock, downgrade to read lock again
-                stamp = lock.tryConvertToReadLock(stamp);
-                if (stamp == 0) {
-                    throw new AssertionError("downgrade should always succeed");
+            } finally {
+                releaseVms(vms);
+            }
+        }
+    }
+
+    /**
+     * Runs all given tasks and returns their results in the same order. Tasks
+     * that require the same VM arguments are sent to a forked VM together, in
+     * a single call, and are run concurrently there. Compared to calling
+     * {@link #run(Task)} for each task, this saves the per-call overhead, but
+     * the tasks in a batch all run in the same VM, so concurrent calls to
+     * {@link #run(Task)} may be better at using a pool of multiple VMs.
+     */
+    public List<Result> runAll(List<Task> tasks) throws IOException {
+        if (System.getProperties().containsKey("test-runner.noFork")) {
+            return doRunAll(tasks);
+        }
+        var batches = new LinkedHashMap<List<String>, List<Integer>>(); // VM args -> task indices
+        for (int i = 0; i < tasks.size(); i++) {
+            var newVmArgs = new ArrayList<>(vmArgs);
+            newVmArgs.addAll(tasks.get(i).vmArgs);
+            batches.computeIfAbsent(newVmArgs, k -> new ArrayList<>()).add(i);
+        }
+        var results = new Result[tasks.size()];
+        for (var batch : batches.entrySet()) {
+            // use an ArrayList, which can be deserialized by the JSON codec
+            var batchTasks = new ArrayList<Task>();
+            batch.getValue().forEach(i -> batchTasks.add(tasks.get(i)));
+
+            var vms = acquireVms(batch.getKey());
+            try {
+                var batchResults = vms.pool.runInForkedVm(TestRunner.class, "doRunAll",
+                        List.of(List.class), List.of(batchTasks), List.class);
+                for (int i = 0; i < batchTasks.size(); i++) {
+                    results[batch.getValue().get(i)] = (Result) batchResults.get(i);
                 }
-                return forkedVm.runInForkedVm(TestRunner.class, "doRun", List.of(task), Result.class);
             } finally {
-                lock.unlock(stamp);
+                releaseVms(vms);
+            }
+        }
+        return List.of(results);
+    }
+
+    /**
+     * Returns the VM pool for the given VM arguments, creating it if needed.
+     * Pools are reference-counted, so that a pool that is evicted from the
+     * cache while tasks are still running in it is only closed once these
+     * tasks are finished.
+     */
+    private synchronized CachedVms acquireVms(List<String> vmArgs) {
+        var vms = forkedVms.get(vmArgs); // also marks entry as recently used
+        if (vms == null) {
+            logger.info("Forking up to {} test runner VM(s) with args: {}",
+                    vmPoolSize, join(" ", vmArgs));
+            vms = new CachedVms(new ForkedVmPool(vmPoolSize, vmArgs,
+                    List.of(TestRunnerJacksonModule.class),
+                    List.of(TestRunnerBinaryModule.class), recyclePolicy));
+            forkedVms.put(vmArgs, vms);
+            if (forkedVms.size() > vmCacheSize) {
+                var eldest = forkedVms.entrySet().iterator().next();
+                forkedVms.remove(eldest.getKey());
+                logger.info("Shutting down test runner VM(s) with args: {}",
+                        join(" ", eldest.getKey()));
+                if (eldest.getValue().users == 0) {
+                    eldest.getValue().pool.close();
+                } else {
+                    evictedVms.add(eldest.getValue());
+                }
             }
         }
+        vms.users++;
+        return vms;
+    }
+
+    private synchronized void releaseVms(CachedVms vms) {
+        vms.users--;
+        if (vms.users == 0 && evictedVms.remove(vms)) {
+            vms.pool.close();
+        }
     }
 
     @Override
-    public void close() {
-        if (forkedVm != null) {
-            forkedVm.close();
+    public synchronized void close() {
+        forkedVms.values().forEach(vms -> vms.pool.close());
+        forkedVms.clear();
+        evictedVms.forEach(vms -> vms.pool.close());
+        evictedVms.clear();
+    }
+
+    private static class CachedVms {
+        final ForkedVmPool pool;
+        int users = 0;
+
+        CachedVms(ForkedVmPool pool) {
+            this.pool = pool;
         }
     }
 
-    private static Result doRun(Task task) throws IOException {
-        try (var sandbox = new Sandbox.Builder(task.sandboxedCode(), task.supportCode())
+    private static List<Result> doRunAll(List<Task> tasks) throws IOException {
+        if (tasks.size() <= 1) {
+            var results = new ArrayList<Result>();
+            for (var task : tasks) {
+                results.add(doRun(task, 0, result -> {}));
+            }
+            return results;
+        }
+        var threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            var futures = new ArrayList<Future<Result>>();
+            for (var task : tasks) {
+                futures.add(executor.submit(() -> doRun(task, 0, result -> {})));
+            }
+            return getAll(futures);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> List<T> getAll(List<Future<T>> futures) throws IOException {
+        try {
+            var results = new ArrayList<T>();
+            for (var future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            } else if (e.getCause() instanceof RuntimeException r) {
+                throw r;
+            } else if (e.getCause() instanceof Error err) {
+                throw err;
+            }
+            throw new TestRunException("failed to run tasks", e.getCause());
+        } catch (InterruptedException e) {
+            currentThread().interrupt();
+            throw new TestRunException("interrupted while running tasks", e);
+        }
+    }
+
+    /**
+     * Called in the forked VM. The results for the individual test methods
+     * are sent back as partial results, so they are not lost if the VM dies
+     * before the task is completed. To avoid sending them twice, the returned
+     * result does not contain them again.
+     */
+    private static Result doRun(Task task, int resumeFrom) throws IOException {
+        doRun(task, resumeFrom, ForkedVmServer.partialResults()::accept);
+        return new Result(emptyList());
+    }
+
+    /**
+     * Runs the test methods of the given task, skipping the first
+     * <code>resumeFrom</code> ones (in the order of execution), which have
+     * already been run by a previous attempt. If the task allows it, multiple
+     * test methods are run in parallel, each worker thread using its own
+     * sandbox. Since a sandbox re-initializes all static state before every
+     * run, test methods are independent of each other anyway. Additional
+     * workers are only used as long as fewer tasks than processors are
+     * running, so that parallel tests do not compete for the CPUs (and exceed
+     * their timeouts). Either way, the results are passed to the listener
+     * and returned in the order of execution. The same applies to the
+     * repetitions of a test if they are run concurrently (see
+     * {@link #runTest}).
+     */
+    private static Result doRun(Task task, int resumeFrom,
+                                Consumer<TestResult> listener) throws IOException {
+        runningTasks.acquireUninterruptibly();
+        var extraWorkers = 0;
+        try {
+            var methods = findTestMethods(task);
+            var nondeterministicApis = new NondeterministicApis(task);
+            methods = methods.subList(Math.min(resumeFrom, methods.size()), methods.size());
+            while (extraWorkers < Math.min(task.parallelism(), methods.size()) - 1
+                   && runningTasks.tryAcquire()) {
+                extraWorkers++;
+            }
+            if (extraWorkers == 0) {
+                var methodResults = new ArrayList<TestResult>();
+                try (var sandboxes = new Sandboxes(task)) {
+                    for (var test : methods) {
+                        var methodResult = runTest(test, task, sandboxes, nondeterministicApis);
+                        methodResults.add(methodResult);
+                        listener.accept(methodResult);
+                    }
+                }
+                return new Result(methodResults);
+            } else {
+                return new Result(runParallel(task, methods, nondeterministicApis,
+                        extraWorkers, listener));
+            }
+        } finally {
+            runningTasks.release(1 + extraWorkers);
+        }
+    }
+
+    private static List<TestResult> runParallel(Task task, List<TestCase> methods,
+                                                NondeterministicApis nondeterministicApis, int extraWorkers,
+                                                Consumer<TestResult> listener) throws IOException {
+        var results = new TestResult[methods.size()];
+        var next = new AtomicInteger();
+        var reported = new int[1]; // guarded by results
+        var aborted = new AtomicBoolean();
+        Callable<Void> worker = () -> {
+            try (var sandboxes = new Sandboxes(task)) {
+                int i;
+                while (!aborted.get() && (i = next.getAndIncrement()) < methods.size()) {
+                    var result = runTest(methods.get(i), task, sandboxes, nondeterministicApis);
+                    synchronized (results) {
+                        results[i] = result;
+                        // report results in order, as soon as all previous ones are available
+                        while (reported[0] < results.length && results[reported[0]] != null) {
+                            listener.accept(results[reported[0]++]);
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                aborted.set(true);
+                throw t;
+            }
+            return null;
+        };
+
+        var executor = Executors.newFixedThreadPool(extraWorkers);
+        try {
+            var futures = new ArrayList<Future<Void>>();
+            for (int w = 0; w < extraWorkers; w++) {
+                futures.add(executor.submit(worker));
+            }
+            var own = new FutureTask<>(worker); // current thread is a worker, too
+            futures.add(own);
+            own.run();
+            getAll(futures);
+        } finally {
+            executor.shutdownNow();
+        }
+        return List.of(results);
+    }
+
+    private static Sandbox newSandbox(Task task) throws IOException {
+        return new Sandbox.Builder(task.sandboxedCode(), task.supportCode())
                 .permittedCalls(task.permittedCalls() != null
                         ? Whitelist.parse(task.permittedCalls())
                         : null)
                 .timeout(task.repTimeout())
+                .instrumentEagerly(true)
                 .stdInMode(EMPTY)
                 .stdOutMode(DISCARD)
                 .stdErrMode(DISCARD)
-                .build()) {
-
-            var methodResults = new ArrayList<TestResult>();
-            for (var method : findTestMethods(task)) {
-                var startTime = currentTimeMillis();
-
-                var passed = false;
-                var failed = false;
-                var exceptions = new LinkedHashSet<ExceptionDescription>(); // eliminate duplicates but keep order
-                var repsMade = task.repetitions();
-                var timeout = false;
-                var outOfMemory = false;
-                var illegalOps = new ArrayList<String>();
-                var scores = new ArrayList<Double>();
-                for (int rep = 1; rep <= task.repetitions(); rep++) {
-                    var result = runSandboxed(method, sandbox);
-
-                    if (result.kind() == TIMEOUT) {
-                        timeout = true;
-                        failed = true;
-                    } else if (result.kind() == OUT_OF_MEMORY) {
-                        outOfMemory = true;
-                        failed = true;
-                    } else if (result.kind() == ILLEGAL_OPERATION) {
-                        illegalOps.add(result.exception().getMessage());
-                        failed = true;
-                    } else if (result.kind() == EXCEPTION) {
-                        // does not happen for normal test exceptions, only
-                        // for issues with JUnit or the sandbox itself
-                        var m = method.getClassName() + "." + method.getMethodName();
-                        throw new TestRunException("failed to run " + m,
-                                result.exception());
-                    } else {
-                        var junitResult = result.value();
-                        var newExceptions = (List<?>) junitResult.get("exceptions");
-                        var newScores = (List<?>) junitResult.get("scores");
-                        if (newExceptions.isEmpty()) {
-                            passed = true;
-                        } else {
-                            failed = true;
-                            for (var e : newExceptions) {
-                                exceptions.add(ExceptionDescription.of((Throwable) e));
-                            }
-                        }
-                        if (!newScores.isEmpty()) {
-                            for (var score : newScores) {
-                                scores.add((Double) score);
-                            }
-                        }
-                    }
+                .build();
+    }
+
+    /**
+     * The sandboxes of a single worker, one for each repetition that may run
+     * concurrently. They are created on demand and reused for all test
+     * methods the worker runs.
+     */
+    private static class Sandboxes implements Closeable {
+        final Task task;
+        final List<Sandbox> sandboxes = new ArrayList<>();
+
+        Sandboxes(Task task) {
+            this.task = task;
+        }
+
+        Sandbox get(int i) throws IOException {
+            while (sandboxes.size() <= i) {
+                sandboxes.add(newSandbox(task));
+            }
+            return sandboxes.get(i);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (var sandbox : sandboxes) {
+                try {
+                    sandbox.run(Sandboxed.class.getName(), "closeSession",
+                            emptyList(), emptyList(), Void.class);
+                } finally {
+                    sandbox.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the repetitions of the given test method, as many as the
+     * repetition policy of the task asks for (see {@link RepetitionPolicy}).
+     * Normally, they run one after the other in the same sandbox, all within
+     * a single call to the sandbox (see {@link Sandbox#runRepeatedly}). If
+     * the task has concurrent repetitions enabled, they run in groups of
+     * concurrent repetitions, each in its own sandbox, so that, e.g., a test
+     * with an infinite loop takes only one repetition timeout instead of one
+     * per repetition. Like parallel tests (see
+     * {@link #doRun(Task, int, Consumer)}), concurrent repetitions only use
+     * processors that are not busy with other tasks. The policy and the test
+     * timeout are checked after each group, so all repetitions of a group are
+     * made, like the currently running repetition in the sequential case.
+     */
+    private static TestResult runTest(TestCase test, Task task, Sandboxes sandboxes,
+                                      NondeterministicApis nondeterministicApis) throws IOException {
+        var results = new RepetitionResults(test, task, nondeterministicApis);
+        if (task.concurrentRepetitions()) {
+            var maxReps = task.repetitionPolicy().maxRepetitions(task.repetitions());
+            do {
+                var concurrent = 1;
+                while (concurrent < maxReps - results.repsMade && runningTasks.tryAcquire()) {
+                    concurrent++;
+                }
+                List<Repetition> reps;
+                try {
+                    reps = runRepetitions(test.source(), sandboxes, concurrent, test.repTimeout());
+                } finally {
+                    runningTasks.release(concurrent - 1);
+                }
+                for (var rep : reps) {
+                    results.add(rep);
+                }
+            } while (results.decide() == Decision.CONTINUE);
+        } else {
+            var start = new long[] {nanoTime()};
+            runSandboxed(test.source(), sandboxes.get(0), test.repTimeout(), result -> {
+                results.add(new Repetition(result, Duration.ofNanos(nanoTime() - start[0])));
+                var more = results.decide() == Decision.CONTINUE;
+                start[0] = nanoTime();
+                return more;
+            });
+        }
+        return results.result();
+    }
+
+    /**
+     * Collects the results of the repetitions of a test method and decides,
+     * using the repetition policy of the task, whether to make more.
+     */
+    private static class RepetitionResults {
+        final TestCase test;
+        final Task task;
+        final NondeterministicApis nondeterministicApis;
+        final long startTime = currentTimeMillis();
+
+        int repsMade = 0;
+        int passedReps = 0;
+        final Set<ExceptionDescription> exceptions = new LinkedHashSet<>(); // eliminate duplicates but keep order
+        boolean timeout = false;
+        boolean outOfMemory = false;
+        final List<String> illegalOps = new ArrayList<>();
+        final List<Double> scores = new ArrayList<>();
+        final List<ResourceUsage> resourceUsage = new ArrayList<>();
+        final Set<List<?>> outcomes = new HashSet<>();
+        Duration minRepTime = null;
+        Duration maxRepTime = Duration.ZERO;
+        Decision decision;
 
-                    if (rep < task.repetitions() &&
-                        currentTimeMillis() - startTime > task.testTimeout().toMillis()) {
-                        repsMade = rep;
-                        break;
+        RepetitionResults(TestCase test, Task task, NondeterministicApis nondeterministicApis) {
+            this.test = test;
+            this.task = task;
+            this.nondeterministicApis = nondeterministicApis;
+        }
+
+        void add(Repetition rep) {
+            repsMade++;
+            var result = rep.result();
+            var cpuTime = Duration.ZERO;
+            var allocatedBytes = 0L;
+            if (result.kind() == TIMEOUT) {
+                timeout = true;
+                outcomes.add(List.of(TIMEOUT));
+            } else if (result.kind() == OUT_OF_MEMORY) {
+                outOfMemory = true;
+                outcomes.add(List.of(OUT_OF_MEMORY));
+            } else if (result.kind() == ILLEGAL_OPERATION) {
+                illegalOps.add(result.exception().getMessage());
+                outcomes.add(List.of(ILLEGAL_OPERATION, result.exception().getMessage()));
+            } else if (result.kind() == EXCEPTION) {
+                // does not happen for normal test exceptions, only
+                // for issues with JUnit or the sandbox itself
+                var m = test.source().getClassName() + "." + test.source().getMethodName();
+                throw new TestRunException("failed to run " + m,
+                        result.exception());
+            } else {
+                var junitResult = result.value();
+                var newExceptions = (List<?>) junitResult.get("exceptions");
+                var newScores = (List<?>) junitResult.get("scores");
+                cpuTime = Duration.ofNanos((Long) junitResult.get("cpuTime"));
+                allocatedBytes = (Long) junitResult.get("allocatedBytes");
+                if (newExceptions.isEmpty()) {
+                    passedReps++;
+                    outcomes.add(List.of());
+                } else {
+                    var descriptions = new ArrayList<ExceptionDescription>();
+                    for (var e : newExceptions) {
+                        descriptions.add(ExceptionDescription.of((Throwable) e));
+                    }
+                    exceptions.addAll(descriptions);
+                    outcomes.add(descriptions);
+                }
+                if (!newScores.isEmpty()) {
+                    for (var score : newScores) {
+                        scores.add((Double) score);
                     }
                 }
+            }
+            resourceUsage.add(new ResourceUsage(rep.time(), cpuTime, allocatedBytes));
+
+            // the first repetition includes class loading, JIT compilation,
+            // etc., so its duration says little about the test itself
+            if (repsMade > 1) {
+                if (minRepTime == null || rep.time().compareTo(minRepTime) < 0) {
+                    minRepTime = rep.time();
+                }
+                if (rep.time().compareTo(maxRepTime) > 0) {
+                    maxRepTime = rep.time();
+                }
+            }
+        }
 
-                var nonDeterm = passed && failed;
-                passed &= !nonDeterm;
-                var incompleteReps = repsMade < task.repetitions();
-
-                var params = method.getMethodParameterTypes().isEmpty()
-                        ? ""
-                        : "(" + method.getMethodParameterTypes() + ")";
-                var testMethod = new TestMethod(method.getClassName().replace('$', '.'),
-                        method.getMethodName() + params);
-                methodResults.add(new TestResult(testMethod, passed, List.copyOf(exceptions), nonDeterm,
-                        repsMade, incompleteReps, timeout, outOfMemory, illegalOps, scores));
+        Decision decide() {
+            var policy = task.repetitionPolicy();
+            decision = policy.decide(new Observations(task.repetitions(),
+                    repsMade, passedReps, outcomes.size(),
+                    policy.readsNondeterministicApis() && nondeterministicApis.get(),
+                    minRepTime == null ? Duration.ZERO : minRepTime, maxRepTime));
+            if (decision == Decision.CONTINUE &&
+                currentTimeMillis() - startTime > task.testTimeout().toMillis()) {
+                decision = Decision.TEST_TIMEOUT;
             }
-            return new Result(methodResults);
+            return decision;
+        }
+
+        TestResult result() {
+            var passed = passedReps == repsMade;
+            var nonDeterm = passedReps > 0 && !passed;
+            var incompleteReps = decision == Decision.TEST_TIMEOUT;
+            return new TestResult(test.method(), passed, List.copyOf(exceptions), nonDeterm,
+                    repsMade, incompleteReps, timeout, outOfMemory, illegalOps, scores, decision,
+                    resourceUsage);
         }
     }
 
-    private static List<MethodSource> findTestMethods(Task task) throws IOException {
-        // To discover test classes, JUnit needs to *load* them, so we create
-        // a custom class loader and set it as the "context class loader" of
-        // the current thread. It delegates to the current context class loader
-        // for all classes except those given by the task.
-        var loader = new InMemClassLoader(task.sandboxedCode().with(task.supportCode()),
-                currentThread().getContextClassLoader());
-        try (var runner = new CustomCxtClassLoaderRunner(loader)) {
-            return runner.run(() -> {
-                var launcher = LauncherFactory.create();
-                var selectors = task.testClassNames().stream()
-                        .map(c -> selectClass(c))
-                        .toList();
-                var classesReq = request()
-                        .configurationParameters(Map.of(
-                                "junit.jupiter.testclass.order.default",
-                                "ch.trick17.jtt.testrunner.OrderAnnotationThenDisplayName",
-                                "junit.jupiter.testmethod.order.default",
-                                "ch.trick17.jtt.testrunner.OrderAnnotationThenDisplayName"))
-                        .selectors(selectors);
-                var testPlan = launcher.discover(classesReq.build());
-                return testPlan.getRoots().stream()
-                        .flatMap(id -> testPlan.getDescendants(id).stream())
-                        .flatMap(id -> id.getSource().stream())
-                        .filter(s -> s instanceof MethodSource)
-                        .map(s -> (MethodSource) s)
-                        .toList();
-            });
+    /**
+     * Whether the code of a task uses nondeterministic APIs (see
+     * {@link NondeterminismScanner}). Scanning all classes of a task takes
+     * time, so this is only done once a repetition policy asks for it.
+     */
+    private static class NondeterministicApis {
+        final Task task;
+        Boolean result; // guarded by this
+
+        NondeterministicApis(Task task) {
+            this.task = task;
+        }
+
+        synchronized boolean get() {
+            if (result == null) {
+                try {
+                    result = NondeterminismScanner.usesNondeterministicApis(
+                            task.sandboxedCode().with(task.supportCode()).memClassPath());
+                } catch (IOException e) {
+                    throw new TestRunException("failed to scan classes", e);
+                }
+            }
+            return result;
         }
     }
 
+    private record Repetition(Sandbox.Result<Map<String, Object>> result, Duration time) {}
+
+    /**
+     * Runs the given number of repetitions of the given test method
+     * concurrently, each in its own sandbox, and returns their results in
+     * order. The current thread runs the first repetition itself.
+     */
+    private static List<Repetition> runRepetitions(MethodSource method, Sandboxes sandboxes,
+                                                   int count, Duration timeout) throws IOException {
+        var first = sandboxes.get(0);
+        if (count == 1) {
+            return List.of(runRepetition(method, first, timeout));
+        }
+        var others = new ArrayList<Sandbox>();
+        for (int i = 1; i < count; i++) {
+            others.add(sandboxes.get(i));
+        }
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var futures = new ArrayList<Future<Repetition>>();
+            for (var sandbox : others) {
+                futures.add(executor.submit(() -> runRepetition(method, sandbox, timeout)));
+            }
+            var results = new ArrayList<Repetition>();
+            results.add(runRepetition(method, first, timeout));
+            results.addAll(getAll(futures));
+            return results;
+        }
+    }
+
+    private static Repetition runRepetition(MethodSource method, Sandbox sandbox,
+                                            Duration timeout) {
+        var start = nanoTime();
+        var result = runSandboxed(method, sandbox, timeout);
+        return new Repetition(result, Duration.ofNanos(nanoTime() - start));
+    }
+
+    /**
+     * A test method found by {@link #findTestMethods(Task)}, together with the
+     * timeout for its repetitions.
+     */
+    private record TestCase(MethodSource source, TestMethod method, Duration repTimeout) {}
+
+    private static List<TestCase> findTestMethods(Task task) throws IOException {
+        return TestDiscovery.discover(task).stream()
+                .map(t -> testCase(t, task))
+                .toList();
+    }
+
+    /**
+     * Determines the repetition timeout for the given test method. By
+     * default, this is the timeout from {@link Task#repTimeouts()} or
+     * {@link Task#repTimeout()}. A {@link RepetitionTimeout} annotation on
+     * the method or one of its (enclosing) classes replaces it, while a JUnit
+     * {@link Timeout} annotation can only make it shorter. Since JUnit
+     * measures only the time of the test method itself, not the overhead of
+     * running it in the sandbox, some slack is added to the latter, so that
+     * JUnit can report slow (but terminating) tests as failures.
+     */
+    private static TestCase testCase(TestDiscovery.DiscoveredTest test, Task task) {
+        var source = test.source();
+        var params = source.getMethodParameterTypes().isEmpty()
+                ? ""
+                : "(" + source.getMethodParameterTypes() + ")";
+        var method = new TestMethod(source.getClassName().replace('$', '.'),
+                source.getMethodName() + params);
+        var repTimeout = task.repTimeouts().getOrDefault(method.toString(), task.repTimeout());
+        // without a task timeout, sandboxed code does not react to timeouts
+        if (repTimeout != null) {
+            if (test.repetitionTimeout() != null) {
+                repTimeout = test.repetitionTimeout();
+            }
+            if (test.junitTimeout() != null) {
+                var limit = test.junitTimeout().plus(JUNIT_TIMEOUT_SLACK);
+                if (limit.compareTo(repTimeout) < 0) {
+                    repTimeout = limit;
+                }
+            }
+        }
+        return new TestCase(source, method, repTimeout);
+    }
+
     @SuppressWarnings("unchecked")
     private static Sandbox.Result<Map<String, Object>> runSandboxed(
-            MethodSource test, Sandbox sandbox) {
+            MethodSource test, Sandbox sandbox, Duration timeout) {
         var args = List.of(test.getClassName(), test.getMethodName(), test.getMethodParameterTypes());
-        var result = sandbox.run(Sandboxed.class, "run",
-                List.of(String.class, String.class, String.class), args, Map.class);
+        var result = sandbox.run(Sandboxed.class.getName(), "run",
+                List.of(String.class, String.class, String.class), args, Map.class, timeout);
         return (Sandbox.Result<Map<String, Object>>) (Object) result;
     }
 
+    /**
+     * Runs repetitions of the given test method in the given sandbox, until
+     * <code>repeat</code> returns <code>false</code>.
+     */
+    @SuppressWarnings("unchecked")
+    private static void runSandboxed(MethodSource test, Sandbox sandbox, Duration timeout,
+                                     Predicate<Sandbox.Result<Map<String, Object>>> repeat) {
+        var args = List.of(test.getClassName(), test.getMethodName(), test.getMethodParameterTypes());
+        sandbox.runRepeatedly(Sandboxed.class.getName(), "run",
+                List.of(String.class, String.class, String.class), args, Map.class, timeout,
+                result -> repeat.test((Sandbox.Result<Map<String, Object>>) (Object) result));
+    }
+
     public static class Sandboxed {
+
+        // this class is support code, which every sandbox loads separately
+        // and whose static state is not re-initialized. So there is one
+        // session per sandbox, which is reused for all tests and repetitions
+        // run in it. Since a sandbox runs one test at a time (concurrent
+        // repetitions use separate sandboxes), the session is never used by
+        // multiple threads at once. It is closed together with the sandbox
+        // (see Sandboxes.close()).
+        private static LauncherSession session;
+
         public static Map<String, Object> run(String className, String methodName, String paramTypes) {
+            var threads = (ThreadMXBean) getThreadMXBean();
+            var startCpuTime = threads.getCurrentThreadCpuTime();
+            var startAllocated = threads.getCurrentThreadAllocatedBytes();
+
+            var scores = new ArrayList<Double>();
+            var exceptions = DirectInvoker.run(className, methodName, paramTypes);
+            if (exceptions == null) {
+                exceptions = runWithLauncher(className, methodName, paramTypes, scores);
+            }
+
+            // -1 if not supported (e.g., for virtual threads)
+            var cpuTime = threads.getCurrentThreadCpuTime();
+            var allocated = threads.getCurrentThreadAllocatedBytes();
+
+            // since JUnit catches the SecurityException, need to rethrow it
+            // for the sandbox to record the illegal operation...
+            for (var e : exceptions) {
+                if (e instanceof SecurityException s) {
+                    throw s;
+                }
+            }
+
+            // can only transfer classes loaded by the bootstrap class loader
+            // across sandbox boundary...
+            var result = new HashMap<String, Object>();
+            result.put("exceptions", exceptions);
+            result.put("scores", scores);
+            result.put("cpuTime", startCpuTime < 0 || cpuTime < 0 ? 0 : cpuTime - startCpuTime);
+            result.put("allocatedBytes", startAllocated < 0 || allocated < 0 ? 0 : allocated - startAllocated);
+            return result;
+        }
+
+        private static List<Throwable> runWithLauncher(String className, String methodName,
+                                                       String paramTypes, List<Double> scores) {
             var sel = selectMethod(className, methodName, paramTypes);
             // disable stack trace pruning, to have more robust results, e.g.,
             // to simplif more aggressive pruning later
@@ -236,7 +784,6 @@ public class TestRunner implements Closeable {
                     .selectors(sel).build();
 
             var exceptions = new ArrayList<Throwable>();
-            var scores = new ArrayList<Double>();
             var listener = new TestExecutionListener() {
                 public void reportingEntryPublished(TestIdentifier id, ReportEntry entry) {
                     entry.getKeyValuePairs().entrySet().stream()
@@ -253,22 +800,22 @@ public class TestRunner implements Closeable {
                     }
                 }
             };
-            LauncherFactory.create().execute(req, listener);
+            launcher().execute(req, listener);
+            return exceptions;
+        }
 
-            // since JUnit catches the SecurityException, need to rethrow it
-            // for the sandbox to record the illegal operation...
-            for (var e : exceptions) {
-                if (e instanceof SecurityException s) {
-                    throw s;
-                }
+        private static synchronized Launcher launcher() {
+            if (session == null) {
+                session = LauncherFactory.openSession();
             }
+            return session.getLauncher();
+        }
 
-            // can only transfer classes loaded by the bootstrap class loader
-            // across sandbox boundary...
-            var result = new HashMap<String, Object>();
-            result.put("exceptions", exceptions);
-            result.put("scores", scores);
-            return result;
+        public static synchronized void closeSession() {
+            if (session != null) {
+                session.close();
+                session = null;
+            }
         }
     }
 
@@ -280,7 +827,49 @@ public class TestRunner implements Closeable {
             Duration repTimeout,
             Duration testTimeout,
             String permittedCalls,
-            List<String> vmArgs) {
+            List<String> vmArgs,
+            int parallelism,
+            boolean concurrentRepetitions,
+            RepetitionPolicy repetitionPolicy,
+            Map<String, Duration> repTimeouts) {
+
+        /**
+         * Creates a task. <code>repTimeouts</code> may contain repetition
+         * timeouts for individual test methods, with the
+         * {@linkplain TestMethod#toString() string form} of the methods as
+         * keys (see {@link AdaptiveTimeouts}); they replace
+         * <code>repTimeout</code>, which applies to all other methods and
+         * must not be <code>null</code> if there are per-method timeouts.
+         */
+        public Task {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1");
+            }
+            if (repetitionPolicy == null) {
+                repetitionPolicy = RepetitionPolicy.FIXED;
+            }
+            repTimeouts = repTimeouts == null ? Map.of() : Map.copyOf(repTimeouts);
+            if (repTimeout == null && !repTimeouts.isEmpty()) {
+                throw new IllegalArgumentException("per-method timeouts require a repetition timeout");
+            }
+        }
+
+        /**
+         * Creates a task whose test methods and repetitions are run one after
+         * the other, with a fixed number of repetitions.
+         */
+        public Task(List<String> testClassNames,
+                    ClassPath sandboxedCode,
+                    ClassPath supportCode,
+                    int repetitions,
+                    Duration repTimeout,
+                    Duration testTimeout,
+                    String permittedCalls,
+                    List<String> vmArgs) {
+            this(testClassNames, sandboxedCode, supportCode, repetitions,
+                    repTimeout, testTimeout, permittedCalls, vmArgs, 1, false,
+                    RepetitionPolicy.FIXED, Map.of());
+        }
 
         public Task(String testClassName,
                     ClassPath sandboxedCode,
@@ -0,0 +1,163 @@
+package ch.trick17.jtt.testrunner;
+
+import ch.trick17.jtt.memcompile.ClassPath;
+import ch.trick17.jtt.memcompile.InMemClassFile;
+import ch.trick17.jtt.testrunner.TestRunner.Result;
+import ch.trick17.jtt.testrunner.TestRunner.Task;
+import ch.trick17.jtt.testrunner.forkedvm.BinaryInput;
+import ch.trick17.jtt.testrunner.forkedvm.BinaryModule;
+import ch.trick17.jtt.testrunner.forkedvm.BinaryOutput;
+import ch.trick17.jtt.testrunner.forkedvm.TypeCodec;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary counterpart of {@link TestRunnerJacksonModule}, which provides
+ * schema-specific codecs for the types that are transferred to and from the
+ * forked test runner VM. In particular, class files are transferred as raw
+ * bytes instead of base64 strings, and only if the forked VM does not have
+ * them in its cache yet.
+ */
+public class TestRunnerBinaryModule implements BinaryModule {
+
+    public List<TypeCodec<?>> codecs() {
+        return List.of(
+                TypeCodec.of(Task.class, TestRunnerBinaryModule::writeTask,
+                        TestRunnerBinaryModule::readTask),
+                TypeCodec.of(Result.class,
+                        (r, out) -> out.writeList(r.testResults(), t -> writeTestResult(t, out)),
+                        in -> new Result(in.readList(() -> readTestResult(in)))),
+                TypeCodec.of(TestResult.class, TestRunnerBinaryModule::writeTestResult,
+                        TestRunnerBinaryModule::readTestResult),
+                TypeCodec.of(RepetitionPolicy.Fixed.class, (p, out) -> {},
+                        in -> new RepetitionPolicy.Fixed()),
+                TypeCodec.of(RepetitionPolicy.Adaptive.class, (p, out) -> {
+                    out.writeInt(p.minReps());
+                    out.writeDouble(p.extensionFactor());
+                    writeDuration(p.fastRepTime(), out);
+                }, in -> new RepetitionPolicy.Adaptive(in.readInt(), in.readDouble(), readDuration(in))));
+    }
+
+    private static void writeTask(Task task, BinaryOutput out) throws IOException {
+        out.writeList(task.testClassNames(), out::writeString);
+        writeClassPath(task.sandboxedCode(), out);
+        writeClassPath(task.supportCode(), out);
+        out.writeInt(task.repetitions());
+        writeNullableDuration(task.repTimeout(), out);
+        writeNullableDuration(task.testTimeout(), out);
+        out.writeString(task.permittedCalls());
+        out.writeList(task.vmArgs(), out::writeString);
+        out.writeInt(task.parallelism());
+        out.writeBoolean(task.concurrentRepetitions());
+        out.writeValue(task.repetitionPolicy()); // may be a custom policy
+        out.writeList(List.copyOf(task.repTimeouts().entrySet()), e -> {
+            out.writeString(e.getKey());
+            writeDuration(e.getValue(), out);
+        });
+    }
+
+    private static Task readTask(BinaryInput in) throws IOException {
+        return new Task(in.readList(in::readString), readClassPath(in), readClassPath(in),
+                in.readInt(), readNullableDuration(in), readNullableDuration(in), in.readString(),
+                in.readList(in::readString), in.readInt(), in.readBoolean(),
+                (RepetitionPolicy) in.readValue(), readRepTimeouts(in));
+    }
+
+    private static Map<String, Duration> readRepTimeouts(BinaryInput in) throws IOException {
+        var repTimeouts = new HashMap<String, Duration>();
+        for (var entry : in.readList(() -> Map.entry(in.readString(), readDuration(in)))) {
+            repTimeouts.put(entry.getKey(), entry.getValue());
+        }
+        return repTimeouts;
+    }
+
+    private static void writeClassPath(ClassPath classPath, BinaryOutput out) throws IOException {
+        out.writeList(classPath.memClassPath(), file -> {
+            out.writeString(file.getClassName());
+            out.writeBlob(file.getContent()); // mostly the same across tasks
+        });
+        out.writeList(classPath.fileClassPath(), path -> out.writeString(path.toString()));
+    }
+
+    private static ClassPath readClassPath(BinaryInput in) throws IOException {
+        return new ClassPath(
+                in.readList(() -> new InMemClassFile(in.readString(), in.readBlob())),
+                in.readList(() -> Path.of(in.readString())));
+    }
+
+    private static void writeDuration(Duration duration, BinaryOutput out) throws IOException {
+        out.writeLong(duration.getSeconds());
+        out.writeInt(duration.getNano());
+    }
+
+    private static Duration readDuration(BinaryInput in) throws IOException {
+        return Duration.ofSeconds(in.readLong(), in.readInt());
+    }
+
+    /**
+     * Writes a duration that may be <code>null</code>, e.g., a repetition
+     * timeout, which is disabled if <code>null</code>.
+     */
+    private static void writeNullableDuration(Duration duration, BinaryOutput out) throws IOException {
+        out.writeBoolean(duration != null);
+        if (duration != null) {
+            writeDuration(duration, out);
+        }
+    }
+
+    private static Duration readNullableDuration(BinaryInput in) throws IOException {
+        return in.readBoolean() ? readDuration(in) : null;
+    }
+
+    private static void writeTestResult(TestResult result, BinaryOutput out) throws IOException {
+        out.writeString(result.method().className());
+        out.writeString(result.method().name());
+        out.writeBoolean(result.passed());
+        out.writeList(result.exceptions(), e -> writeException(e, out));
+        out.writeBoolean(result.nonDeterm());
+        out.writeInt(result.repsMade());
+        out.writeBoolean(result.incompleteReps());
+        out.writeBoolean(result.timeout());
+        out.writeBoolean(result.outOfMemory());
+        out.writeList(result.illegalOps(), out::writeString);
+        out.writeList(result.scores(), out::writeDouble);
+        out.writeString(result.repetitionDecision().name());
+        out.writeList(result.repResourceUsage(), u -> {
+            writeDuration(u.wallTime(), out);
+            writeDuration(u.cpuTime(), out);
+            out.writeLong(u.allocatedBytes());
+        });
+    }
+
+    private static TestResult readTestResult(BinaryInput in) throws IOException {
+        return new TestResult(new TestMethod(in.readString(), in.readString()),
+                in.readBoolean(), in.readList(() -> readException(in)),
+                in.readBoolean(), in.readInt(), in.readBoolean(), in.readBoolean(),
+                in.readBoolean(), in.readList(in::readString), in.readList(in::readDouble),
+                RepetitionPolicy.Decision.valueOf(in.readString()),
+                in.readList(() -> new ResourceUsage(readDuration(in), readDuration(in), in.readLong())));
+    }
+
+    private static void writeException(ExceptionDescription e, BinaryOutput out) throws IOException {
+        out.writeString(e.className());
+        out.writeString(e.message());
+        out.writeBoolean(e.cause() != null);
+        if (e.cause() != null) {
+            writeException(e.cause(), out);
+        }
+        out.writeList(e.stackTrace(), out::writeStackTraceElement);
+    }
+
+    private static ExceptionDescription readException(BinaryInput in) throws IOException {
+        var className = in.readString();
+        var message = in.readString();
+        var cause = in.readBoolean() ? readException(in) : null;
+        return new ExceptionDescription(className, message, cause,
+                in.readList(in::readStackTraceElement));
+    }
+}
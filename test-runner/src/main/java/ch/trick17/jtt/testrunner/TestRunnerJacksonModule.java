@@ -23,6 +23,7 @@ public class TestRunnerJacksonModule extends SimpleModule {
         context.setMixInAnnotations(Throwable.class, ThrowableMixin.class);
         context.setMixInAnnotations(StackTraceElement.class, StackTraceElementMixin.class);
         context.setMixInAnnotations(ClassNotFoundException.class, ClassNotFoundExceptionMixin.class);
+        context.setMixInAnnotations(RepetitionPolicy.class, RepetitionPolicyMixin.class);
     }
 
     @JsonSerialize(using = TestMethodSerializer.class, keyUsing = TestMethodKeySerializer.class)
@@ -71,6 +72,9 @@ public class TestRunnerJacksonModule extends SimpleModule {
     @JsonIncludeProperties({"message", "cause", "stackTrace"})
     public static class ThrowableMixin {}
 
+    @JsonTypeInfo(use = CLASS)
+    public static class RepetitionPolicyMixin {}
+
     @JsonIncludeProperties({"methodName", "className", "fileName", "lineNumber"})
     public static class StackTraceElementMixin {}
 
@@ -0,0 +1,171 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Speeds up the startup of forked VMs using a dynamic AppCDS archive, which
+ * contains the classes (Jackson, JUnit, Javassist, etc.) that a forked VM
+ * loads in its lifetime in a pre-parsed form. Enabled by setting the
+ * <code>test-runner.appCds</code> system property, optionally to the
+ * directory where the archives should be kept (by default, a
+ * <code>test-runner-cds</code> directory in the temp directory).
+ * <p>
+ * There is one archive per combination of JDK, class path, and VM arguments.
+ * If there is no archive yet, the next forked VM becomes the <em>training
+ * run</em>: it is started with <code>-XX:ArchiveClassesAtExit</code> and
+ * writes the archive when it is destroyed, so the archive contains all
+ * classes that were needed for the calls it handled. All VMs that are
+ * started afterwards use the archive. Note that the JDK does not support
+ * AppCDS if the class path contains (non-empty) directories, as it typically
+ * does during development; in that case, the VMs are started normally.
+ */
+class AppCds {
+
+    private static final Logger logger = getLogger(AppCds.class);
+
+    private static final long TRAINING_EXIT_TIMEOUT = 60; // seconds
+    // CDS logs warnings to stdout by default, which is reserved for the
+    // address announced by the server
+    private static final List<String> LOG_TO_STDERR = List.of("-Xlog:cds*=off", "-Xlog:cds*=error:stderr");
+    // archives that are currently being created by a VM started by this VM
+    private static final Set<Path> training = ConcurrentHashMap.newKeySet();
+    private static volatile boolean unsupportedLogged = false;
+
+    private final Path archive;
+
+    private AppCds(Path archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Returns the AppCDS archive for VMs with the given VM arguments, or
+     * <code>null</code> if AppCDS is disabled or not supported.
+     */
+    static AppCds forVmArgs(List<String> vmArgs) {
+        var dir = System.getProperty("test-runner.appCds");
+        if (dir == null) {
+            return null;
+        }
+        var classPath = System.getProperty("java.class.path");
+        for (var entry : classPath.split(File.pathSeparator)) {
+            var file = new File(entry);
+            var contents = file.list();
+            if (file.isDirectory() && contents != null && contents.length > 0) {
+                if (!unsupportedLogged) {
+                    unsupportedLogged = true;
+                    logger.warn("AppCDS not supported because class path contains directory {}", entry);
+                }
+                return null;
+            }
+        }
+        var key = new ArrayList<String>();
+        key.add(System.getProperty("java.home"));
+        key.add(System.getProperty("java.vm.version"));
+        key.add(classPath);
+        key.addAll(vmArgs);
+        var digest = Digest.of(String.join("\n", key).getBytes(UTF_8));
+        var base = dir.isEmpty()
+                ? Path.of(System.getProperty("java.io.tmpdir"), "test-runner-cds")
+                : Path.of(dir);
+        return new AppCds(base.resolve(digest + ".jsa"));
+    }
+
+    /**
+     * Returns the additional VM arguments for a VM that uses the archive, or
+     * an empty list if the archive does not exist (yet).
+     */
+    List<String> vmArgs() {
+        if (!Files.exists(archive)) {
+            return List.of();
+        }
+        var args = new ArrayList<>(LOG_TO_STDERR);
+        args.add("-XX:SharedArchiveFile=" + archive);
+        return args;
+    }
+
+    /**
+     * Starts a training run, unless the archive already exists or is
+     * currently being created. If a training run is returned, the caller
+     * must start the next VM with its {@linkplain Training#vmArgs() VM
+     * arguments} and {@linkplain Training#finish finish} it instead of
+     * destroying the VM directly.
+     */
+    Training startTraining() throws IOException {
+        if (Files.exists(archive) || !training.add(archive)) {
+            return null;
+        }
+        try {
+            Files.createDirectories(archive.getParent());
+            var output = Files.createTempFile(archive.getParent(), "training", ".jsa");
+            Files.delete(output); // only reserve the name, the VM creates the file
+            output.toFile().deleteOnExit(); // in case the training VM does not finish
+            return new Training(output);
+        } catch (IOException e) {
+            training.remove(archive);
+            throw e;
+        }
+    }
+
+    class Training {
+        private final Path output;
+
+        private Training(Path output) {
+            this.output = output;
+        }
+
+        List<String> vmArgs() {
+            var args = new ArrayList<>(LOG_TO_STDERR);
+            args.add("-XX:ArchiveClassesAtExit=" + output);
+            return args;
+        }
+
+        /**
+         * Shuts down the given training VM, which makes it write the archive,
+         * and moves the archive to its final location, where other VMs can
+         * pick it up. Also works if the VM has already exited.
+         */
+        void finish(Process process) {
+            try {
+                process.destroy();
+                if (process.waitFor(TRAINING_EXIT_TIMEOUT, SECONDS)) {
+                    if (Files.exists(output)) {
+                        Files.move(output, archive, REPLACE_EXISTING, ATOMIC_MOVE);
+                        logger.info("Created AppCDS archive {}", archive);
+                    }
+                } else {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                logger.warn("Could not create AppCDS archive {}", archive, e);
+            } finally {
+                training.remove(archive);
+            }
+        }
+
+        /**
+         * Gives up this training run (e.g., because the VM could not be
+         * started), so that the next VM becomes a training run instead.
+         */
+        void abort() {
+            training.remove(archive);
+        }
+    }
+}
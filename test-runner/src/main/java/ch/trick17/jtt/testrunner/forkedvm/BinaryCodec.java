@@ -0,0 +1,111 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import ch.trick17.jtt.testrunner.forkedvm.Result.ReturnedValue;
+import ch.trick17.jtt.testrunner.forkedvm.Result.ThrownException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes calls and results in a compact binary format. Strings, primitives,
+ * byte arrays, lists, maps, enums, and throwables are encoded directly and
+ * types for which a {@link BinaryModule} provides a {@link TypeCodec} are
+ * encoded by that codec. Values of all other types are embedded as JSON, so
+ * any type supported by the {@link JsonCodec} can still be transferred.
+ */
+class BinaryCodec implements Codec {
+
+    // value tags
+    static final byte NULL = 0;
+    static final byte CUSTOM = 1;
+    static final byte STRING = 2;
+    static final byte BOOLEAN = 3;
+    static final byte BYTE = 4;
+    static final byte SHORT = 5;
+    static final byte CHAR = 6;
+    static final byte INT = 7;
+    static final byte LONG = 8;
+    static final byte FLOAT = 9;
+    static final byte DOUBLE = 10;
+    static final byte BYTES = 11;
+    static final byte LIST = 12;
+    static final byte MAP = 13;
+    static final byte ENUM = 14;
+    static final byte THROWABLE = 15;
+    static final byte JSON = 16;
+
+    private final Map<String, TypeCodec<?>> codecs = new HashMap<>();
+    private final LazyMapper mapper;
+
+    BinaryCodec(Iterable<? extends BinaryModule> modules, LazyMapper mapper) {
+        for (var module : modules) {
+            for (var codec : module.codecs()) {
+                codecs.put(codec.type().getName(), codec);
+            }
+        }
+        this.mapper = mapper;
+    }
+
+    TypeCodec<?> codecFor(String className) {
+        return codecs.get(className);
+    }
+
+    byte[] toJson(Object value) throws IOException {
+        return mapper.get().writeValueAsBytes(value);
+    }
+
+    Object fromJson(byte[] json, Class<?> type) throws IOException {
+        return mapper.get().readValue(json, type);
+    }
+
+    public byte id() {
+        return BINARY;
+    }
+
+    public byte[] encodeCall(MethodCall call, Set<Digest> peerBlobs) throws IOException {
+        return encode(peerBlobs, out -> {
+            out.writeString(call.className());
+            out.writeString(call.methodName());
+            out.writeList(call.paramTypeNames(), out::writeString);
+            out.writeList(call.args(), out::writeValue);
+        });
+    }
+
+    public MethodCall decodeCall(byte[] bytes, BlobCache blobs) throws IOException {
+        var in = new BinaryInput(new ByteArrayInputStream(bytes), this, blobs);
+        return new MethodCall(in.readString(), in.readString(),
+                in.readList(in::readString), in.readList(in::readValue));
+    }
+
+    public byte[] encodeResult(Result result) throws IOException {
+        return encode(null, out -> {
+            if (result instanceof ReturnedValue v) {
+                out.writeBoolean(true);
+                out.writeValue(v.value());
+            } else if (result instanceof ThrownException e) {
+                out.writeBoolean(false);
+                out.writeThrowable(e.exception());
+            }
+        });
+    }
+
+    public Result decodeResult(byte[] bytes) throws IOException {
+        var in = new BinaryInput(new ByteArrayInputStream(bytes), this, null);
+        return in.readBoolean()
+                ? new ReturnedValue(in.readValue())
+                : new ThrownException(in.readThrowable());
+    }
+
+    private byte[] encode(Set<Digest> peerBlobs, BinaryOutput.ItemWriter<BinaryOutput> writer)
+            throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new BinaryOutput(bytes, this, peerBlobs);
+        writer.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,174 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static ch.trick17.jtt.testrunner.forkedvm.BinaryCodec.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The stream that {@link TypeCodec}s read from. It provides the counterparts
+ * to the methods of {@link BinaryOutput}.
+ */
+public class BinaryInput extends DataInputStream {
+
+    private final BinaryCodec codec;
+    private final BlobCache blobs;
+
+    /**
+     * Creates a stream that stores blobs in the given cache and restores blobs
+     * that were written as digests only from it. If the cache is
+     * <code>null</code>, all blobs must have been written in full.
+     */
+    BinaryInput(InputStream in, BinaryCodec codec, BlobCache blobs) {
+        super(in);
+        this.codec = codec;
+        this.blobs = blobs;
+    }
+
+    public String readString() throws IOException {
+        var length = readInt();
+        if (length == -1) {
+            return null;
+        }
+        var bytes = new byte[length];
+        readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    public byte[] readByteArray() throws IOException {
+        var bytes = new byte[readInt()];
+        readFully(bytes);
+        return bytes;
+    }
+
+    public byte[] readBlob() throws IOException {
+        var digest = Digest.readFrom(this);
+        if (readBoolean()) {
+            var content = readByteArray();
+            if (blobs != null) {
+                blobs.put(digest, content);
+            }
+            return content;
+        }
+        var content = blobs == null ? null : blobs.get(digest);
+        if (content == null) {
+            throw new MissingBlobException("blob " + digest + " not in cache");
+        }
+        return content;
+    }
+
+    public <T> List<T> readList(ItemReader<T> reader) throws IOException {
+        var size = readInt();
+        var list = new ArrayList<T>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(reader.read());
+        }
+        return list;
+    }
+
+    public Object readValue() throws IOException {
+        var tag = readByte();
+        return switch (tag) {
+            case NULL -> null;
+            case CUSTOM -> {
+                var className = readString();
+                var typeCodec = codec.codecFor(className);
+                if (typeCodec == null) {
+                    throw new IOException("no codec for " + className);
+                }
+                yield typeCodec.read(this);
+            }
+            case STRING -> readString();
+            case BOOLEAN -> readBoolean();
+            case BYTE -> readByte();
+            case SHORT -> readShort();
+            case CHAR -> readChar();
+            case INT -> readInt();
+            case LONG -> readLong();
+            case FLOAT -> readFloat();
+            case DOUBLE -> readDouble();
+            case BYTES -> readByteArray();
+            case LIST -> readList(this::readValue);
+            case MAP -> {
+                var size = readInt();
+                var map = new LinkedHashMap<>(size);
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(), readValue());
+                }
+                yield map;
+            }
+            case ENUM -> readEnum(findClass(readString()), readString());
+            case THROWABLE -> readThrowable();
+            case JSON -> {
+                var type = findClass(readString());
+                yield codec.fromJson(readByteArray(), type);
+            }
+            default -> throw new IOException("unknown tag " + tag);
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readEnum(Class<?> cls, String name) {
+        return Enum.valueOf((Class<Enum>) cls, name);
+    }
+
+    /**
+     * Reads a throwable written by {@link BinaryOutput#writeThrowable}. If the
+     * class of the throwable is not available or cannot be instantiated with
+     * its message, a {@link RuntimeException} that mentions the original class
+     * name is returned instead.
+     */
+    public Throwable readThrowable() throws IOException {
+        var className = readString();
+        var message = readString();
+        var stackTrace = readList(this::readStackTraceElement);
+        var cause = readBoolean() ? readThrowable() : null;
+        var suppressed = readList(this::readThrowable);
+
+        var throwable = newThrowable(className, message, cause);
+        throwable.setStackTrace(stackTrace.toArray(StackTraceElement[]::new));
+        suppressed.forEach(throwable::addSuppressed);
+        return throwable;
+    }
+
+    private static Throwable newThrowable(String className, String message, Throwable cause) {
+        try {
+            var cls = Class.forName(className).asSubclass(Throwable.class);
+            if (cause != null) {
+                try {
+                    return cls.getConstructor(String.class, Throwable.class)
+                            .newInstance(message, cause);
+                } catch (NoSuchMethodException ignored) {}
+            }
+            var throwable = cls.getConstructor(String.class).newInstance(message);
+            if (cause != null && throwable.getCause() == null) {
+                throwable.initCause(cause);
+            }
+            return throwable;
+        } catch (ReflectiveOperationException | ClassCastException | IllegalStateException e) {
+            var fullMessage = message == null ? className : className + ": " + message;
+            return new RuntimeException(fullMessage, cause);
+        }
+    }
+
+    public StackTraceElement readStackTraceElement() throws IOException {
+        return new StackTraceElement(readString(), readString(), readString(), readInt());
+    }
+
+    private static Class<?> findClass(String className) throws IOException {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public interface ItemReader<T> {
+        T read() throws IOException;
+    }
+}
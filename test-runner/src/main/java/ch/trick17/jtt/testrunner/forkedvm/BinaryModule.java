@@ -0,0 +1,13 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.util.List;
+
+/**
+ * Provides {@link TypeCodec}s for the {@link BinaryCodec}, similar to how a
+ * Jackson module provides serializers for the {@link JsonCodec}. Like Jackson
+ * modules, binary modules are passed to the forked VM by class name and must
+ * therefore have a public no-argument constructor.
+ */
+public interface BinaryModule {
+    List<TypeCodec<?>> codecs();
+}
@@ -0,0 +1,166 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ch.trick17.jtt.testrunner.forkedvm.BinaryCodec.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+
+/**
+ * The stream that {@link TypeCodec}s write to. In addition to the methods of
+ * {@link DataOutputStream}, it supports (nullable) strings of any length,
+ * lists, and arbitrary values, which are tagged with their type so that
+ * {@link BinaryInput#readValue()} can restore them.
+ */
+public class BinaryOutput extends DataOutputStream {
+
+    private final BinaryCodec codec;
+    private final Set<Digest> peerBlobs;
+
+    /**
+     * Creates a stream that writes blobs contained in the given set of digests
+     * as digests only (see {@link #writeBlob}) and adds the digests of all
+     * other blobs to the set. If the set is <code>null</code>, all blobs are
+     * written in full.
+     */
+    BinaryOutput(OutputStream out, BinaryCodec codec, Set<Digest> peerBlobs) {
+        super(out);
+        this.codec = codec;
+        this.peerBlobs = peerBlobs;
+    }
+
+    public void writeString(String s) throws IOException {
+        if (s == null) {
+            writeInt(-1);
+        } else {
+            writeByteArray(s.getBytes(UTF_8));
+        }
+    }
+
+    public void writeByteArray(byte[] bytes) throws IOException {
+        writeInt(bytes.length);
+        write(bytes);
+    }
+
+    /**
+     * Writes a byte array that is likely to be sent to the forked VM
+     * repeatedly, like the content of a class file. The forked VM keeps such
+     * blobs in a cache, so if it has already received the same content
+     * before, only its digest is written.
+     */
+    public void writeBlob(byte[] content) throws IOException {
+        var digest = Digest.of(content);
+        digest.writeTo(this);
+        var send = peerBlobs == null || peerBlobs.add(digest);
+        writeBoolean(send);
+        if (send) {
+            writeByteArray(content);
+        }
+    }
+
+    public <T> void writeList(List<T> list, ItemWriter<T> writer) throws IOException {
+        writeInt(list.size());
+        for (var item : list) {
+            writer.write(item);
+        }
+    }
+
+    public void writeValue(Object value) throws IOException {
+        TypeCodec<?> typeCodec;
+        if (value == null) {
+            writeByte(NULL);
+        } else if ((typeCodec = codec.codecFor(value.getClass().getName())) != null) {
+            writeByte(CUSTOM);
+            writeString(value.getClass().getName());
+            writeCustom(value, typeCodec);
+        } else if (value instanceof String s) {
+            writeByte(STRING);
+            writeString(s);
+        } else if (value instanceof Boolean b) {
+            writeByte(BOOLEAN);
+            writeBoolean(b);
+        } else if (value instanceof Byte b) {
+            writeByte(BYTE);
+            writeByte(b);
+        } else if (value instanceof Short s) {
+            writeByte(SHORT);
+            writeShort(s);
+        } else if (value instanceof Character c) {
+            writeByte(CHAR);
+            writeChar(c);
+        } else if (value instanceof Integer i) {
+            writeByte(INT);
+            writeInt(i);
+        } else if (value instanceof Long l) {
+            writeByte(LONG);
+            writeLong(l);
+        } else if (value instanceof Float f) {
+            writeByte(FLOAT);
+            writeFloat(f);
+        } else if (value instanceof Double d) {
+            writeByte(DOUBLE);
+            writeDouble(d);
+        } else if (value instanceof byte[] bytes) {
+            writeByte(BYTES);
+            writeByteArray(bytes);
+        } else if (value instanceof List<?> list) {
+            writeByte(LIST);
+            writeList(list, this::writeValue);
+        } else if (value instanceof Map<?, ?> map) {
+            writeByte(MAP);
+            writeInt(map.size());
+            for (var entry : map.entrySet()) {
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        } else if (value instanceof Enum<?> e) {
+            writeByte(ENUM);
+            writeString(e.getDeclaringClass().getName());
+            writeString(e.name());
+        } else if (value instanceof Throwable t) {
+            writeByte(THROWABLE);
+            writeThrowable(t);
+        } else {
+            writeByte(JSON);
+            writeString(value.getClass().getName());
+            writeByteArray(codec.toJson(value));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void writeCustom(Object value, TypeCodec<T> typeCodec) throws IOException {
+        typeCodec.write((T) value, this);
+    }
+
+    /**
+     * Writes the class name, message, stack trace, cause, and suppressed
+     * exceptions of the given throwable. Other fields are not preserved.
+     */
+    public void writeThrowable(Throwable t) throws IOException {
+        writeString(t.getClass().getName());
+        writeString(t.getMessage());
+        writeList(asList(t.getStackTrace()), this::writeStackTraceElement);
+        var cause = t.getCause();
+        writeBoolean(cause != null);
+        if (cause != null) {
+            writeThrowable(cause);
+        }
+        writeList(asList(t.getSuppressed()), this::writeThrowable);
+    }
+
+    public void writeStackTraceElement(StackTraceElement element) throws IOException {
+        writeString(element.getClassName());
+        writeString(element.getMethodName());
+        writeString(element.getFileName());
+        writeInt(element.getLineNumber());
+    }
+
+    public interface ItemWriter<T> {
+        void write(T item) throws IOException;
+    }
+}
@@ -0,0 +1,41 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Stores the blobs (typically class files) that the forked VM has received,
+ * keyed by their {@link Digest}, so that clients only need to send the digest
+ * the next time they send the same blob. When the total size of the blobs
+ * exceeds the capacity, the least recently used ones are evicted; a client
+ * referring to an evicted blob receives a {@link MissingBlobException} and
+ * must send the blob again.
+ */
+class BlobCache {
+
+    private final long capacity;
+    // access-ordered, so the first entry is always the least recently used one
+    private final LinkedHashMap<Digest, byte[]> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    BlobCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    synchronized void put(Digest digest, byte[] content) {
+        var prev = blobs.put(digest, content);
+        if (prev == null) {
+            size += content.length;
+        }
+        // never evict the new blob itself, it is about to be used
+        var i = blobs.entrySet().iterator();
+        while (size > capacity && blobs.size() > 1) {
+            var eldest = i.next();
+            size -= eldest.getValue().length;
+            i.remove();
+        }
+    }
+
+    synchronized byte[] get(Digest digest) {
+        return blobs.get(digest);
+    }
+}
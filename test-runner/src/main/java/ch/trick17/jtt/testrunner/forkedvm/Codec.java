@@ -0,0 +1,35 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Encodes the calls and results exchanged between {@link ForkedVmClient} and
+ * {@link ForkedVmServer}. The ID of the codec used for a request is sent along
+ * with it, so the server can decode it and encode the result the same way.
+ */
+interface Codec {
+
+    byte JSON = 0;
+    byte BINARY = 1;
+
+    byte id();
+
+    /**
+     * Encodes the given call. Blobs whose digests are contained in the given
+     * set are assumed to be in the forked VM's {@link BlobCache} already and
+     * may be encoded as digests only; the digests of all other blobs are
+     * added to the set.
+     */
+    byte[] encodeCall(MethodCall call, Set<Digest> peerBlobs) throws IOException;
+
+    /**
+     * Decodes the given call, storing any blobs it contains in the given
+     * cache.
+     */
+    MethodCall decodeCall(byte[] bytes, BlobCache blobs) throws IOException;
+
+    byte[] encodeResult(Result result) throws IOException;
+
+    Result decodeResult(byte[] bytes) throws IOException;
+}
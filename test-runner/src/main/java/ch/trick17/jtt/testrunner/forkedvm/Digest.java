@@ -0,0 +1,61 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static java.util.Collections.synchronizedMap;
+
+/**
+ * The SHA-256 digest of a blob, used to refer to blobs that the forked VM
+ * already has in its {@link BlobCache}.
+ */
+record Digest(long w0, long w1, long w2, long w3) {
+
+    // the same class files are typically sent many times, so cache the digests
+    // (arrays use identity-based equality, so modified arrays are not supported)
+    private static final Map<byte[], Digest> cache = synchronizedMap(new WeakHashMap<>());
+
+    static Digest of(byte[] content) {
+        var digest = cache.get(content);
+        if (digest == null) {
+            // hash outside the lock, which is shared by all threads
+            digest = compute(content);
+            var existing = cache.putIfAbsent(content, digest);
+            if (existing != null) {
+                digest = existing;
+            }
+        }
+        return digest;
+    }
+
+    private static Digest compute(byte[] content) {
+        try {
+            var sha = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(content));
+            return new Digest(sha.getLong(), sha.getLong(), sha.getLong(), sha.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // SHA-256 is supported on all platforms
+        }
+    }
+
+    static Digest readFrom(DataInput in) throws IOException {
+        return new Digest(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(w0);
+        out.writeLong(w1);
+        out.writeLong(w2);
+        out.writeLong(w3);
+    }
+
+    @Override
+    public String toString() {
+        return "%016x%016x%016x%016x".formatted(w0, w1, w2, w3);
+    }
+}
@@ -1,64 +1,126 @@
 package ch.trick17.jtt.testrunner.forkedvm;
 
-import ch.trick17.javaprocesses.JavaProcessBuilder;
-import ch.trick17.javaprocesses.util.LineCopier;
-import ch.trick17.javaprocesses.util.LineWriterAdapter;
 import ch.trick17.jtt.testrunner.forkedvm.Result.ReturnedValue;
 import ch.trick17.jtt.testrunner.forkedvm.Result.ThrownException;
+import ch.trick17.jtt.testrunner.forkedvm.VmLauncher.ForkedVm;
 import com.fasterxml.jackson.databind.Module;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.net.Socket;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
-import static com.fasterxml.jackson.databind.ObjectMapper.DefaultTyping.JAVA_LANG_OBJECT;
 import static java.util.Arrays.asList;
 import static java.util.Arrays.stream;
 import static java.util.Collections.emptyList;
-import static java.util.List.copyOf;
-import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 
 public class ForkedVmClient implements Closeable {
 
     private static final int CONNECT_TRIES = 3;
 
-    private final List<String> vmArgs;
-    private final List<String> moduleClasses = new ArrayList<>();
-    private final ObjectMapper mapper;
+    private final VmLauncher launcher;
+    private final boolean ownsLauncher;
+    private final RecyclePolicy recyclePolicy;
+    private final Codec codec;
+    private final boolean sharedMemory = System.getProperties().containsKey("test-runner.sharedMemory");
 
-    private Process forkedVm;
-    private int port;
+    private volatile Vm current;
+    private final Set<Vm> draining = new HashSet<>(); // guarded by this
+    private volatile boolean failing;
 
     public ForkedVmClient() {
         this(emptyList(), emptyList());
     }
 
     public ForkedVmClient(List<String> vmArgs, Iterable<Class<? extends Module>> moduleClasses) {
-        this.vmArgs = copyOf(vmArgs);
+        this(vmArgs, moduleClasses, emptyList());
+    }
+
+    /**
+     * Creates a client for a forked VM with the given VM arguments. The given
+     * Jackson modules and {@link BinaryModule}s are instantiated both here and
+     * in the forked VM and define how the arguments and return values of calls
+     * are transferred. By default, the {@link BinaryCodec} is used, which falls
+     * back to JSON for types for which no binary module provides a codec. To
+     * use JSON for everything (e.g., for debugging), set the
+     * <code>test-runner.jsonCodec</code> system property. Similarly, the
+     * <code>test-runner.tcpTransport</code> system property makes the client
+     * use TCP instead of a Unix domain socket on Linux (see {@link Transport})
+     * and the <code>test-runner.sharedMemory</code> property makes it transfer
+     * large payloads through a {@link SharedMemoryRing}.
+     */
+    public ForkedVmClient(List<String> vmArgs,
+                          Iterable<Class<? extends Module>> moduleClasses,
+                          Iterable<Class<? extends BinaryModule>> binaryModuleClasses) {
+        this(new VmLauncher(vmArgs, moduleClasses, binaryModuleClasses, false), true,
+                moduleClasses, binaryModuleClasses, RecyclePolicy.NEVER);
+    }
+
+    /**
+     * Creates a client that uses the given launcher, which may be shared with
+     * other clients (see {@link ForkedVmPool}), to start forked VMs. The
+     * launcher must be configured with the same module classes. The forked VM
+     * is replaced by a new one whenever it crosses one of the thresholds of
+     * the given recycle policy.
+     */
+    ForkedVmClient(VmLauncher launcher, boolean ownsLauncher,
+                   Iterable<Class<? extends Module>> moduleClasses,
+                   Iterable<Class<? extends BinaryModule>> binaryModuleClasses,
+                   RecyclePolicy recyclePolicy) {
+        this.launcher = launcher;
+        this.ownsLauncher = ownsLauncher;
+        this.recyclePolicy = recyclePolicy;
 
         var modules = new ArrayList<Module>();
         for (var cls : moduleClasses) {
-            this.moduleClasses.add(cls.getName());
-            try {
-                modules.add(cls.getDeclaredConstructor().newInstance());
-            } catch (ReflectiveOperationException e) {
-                throw new IllegalArgumentException("could not instantiate module " + cls.getName(), e);
-            }
+            modules.add(instantiate(cls));
+        }
+        var binaryModules = new ArrayList<BinaryModule>();
+        for (var cls : binaryModuleClasses) {
+            binaryModules.add(instantiate(cls));
+        }
+        var mapper = new LazyMapper(() -> modules);
+        codec = System.getProperties().containsKey("test-runner.jsonCodec")
+                ? new JsonCodec(mapper)
+                : new BinaryCodec(binaryModules, mapper);
+    }
+
+    private static <T> T instantiate(Class<T> cls) {
+        try {
+            return cls.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("could not instantiate module " + cls.getName(), e);
         }
-        mapper = new ObjectMapper()
-                .findAndRegisterModules()
-                .registerModules(modules)
-                .activateDefaultTyping(LaissezFaireSubTypeValidator.instance, JAVA_LANG_OBJECT);
     }
 
     public List<String> getVmArgs() {
-        return vmArgs;
+        return launcher.vmArgs();
+    }
+
+    /**
+     * Returns whether this client is expected to be able to handle calls
+     * without delay, i.e., the forked VM either has not been started yet or
+     * is running and the last call to it did not fail.
+     */
+    public boolean isHealthy() {
+        var vm = current;
+        return !failing && (vm == null || vm.process.process().isAlive());
+    }
+
+    /**
+     * Returns the statistics that the current forked VM reported with its
+     * latest response, or <code>null</code> if there is no such VM or it has
+     * not responded yet.
+     */
+    public VmStats getVmStats() {
+        var vm = current;
+        return vm == null ? null : vm.connection.stats();
     }
 
     public <R> R runInForkedVm(Class<?> cls, String methodName,
@@ -108,43 +170,116 @@ public class ForkedVmClient implements Closeable {
     }
 
     public <R> R runInForkedVm(MethodCall call, Class<R> returnType) throws IOException {
-        for (int tries = 1; ; tries++) {
-            ensureForkedVmRunning();
-            try (var socket = new Socket("localhost", port)) {
-                var request = mapper.writeValueAsBytes(call);
-                socket.getOutputStream().write(request);
-                socket.getOutputStream().write('\n');
+        return runInForkedVm(() -> call, returnType, value -> {});
+    }
 
-                var result = mapper.readValue(socket.getInputStream(), Result.class);
+    /**
+     * Calls a method in the forked VM, like
+     * {@link #runInForkedVm(MethodCall, Class)}, and passes the partial
+     * results that the method sends (see
+     * {@link ForkedVmServer#partialResults()}) to the given consumer, as soon
+     * as they arrive. If the call fails, e.g., because the forked VM died, and
+     * is retried, the call for the retry is obtained again from the given
+     * supplier. This way, the caller can resume the work where it was
+     * interrupted, taking the partial results received so far into account.
+     */
+    public <R> R runInForkedVm(Supplier<MethodCall> callSupplier, Class<R> returnType,
+                               Consumer<Object> partialResults) throws IOException {
+        for (int tries = 1; ; tries++) {
+            Vm vm = null;
+            var call = callSupplier.get();
+            try {
+                vm = acquireVm();
+                var result = call(vm.connection, call, partialResults);
+                failing = false;
+                var stats = vm.connection.stats();
+                if (stats != null && recyclePolicy.shouldRecycle(stats)) {
+                    vm.recycle = true;
+                }
                 if (result instanceof ReturnedValue v) {
                     return returnType.cast(v.value());
                 } else if (result instanceof ThrownException e) {
                     rethrow(e.exception(), call);
                 }
             } catch (IOException | OutOfMemoryError e) { // includes exceptions from the server
+                failing = true;
                 if (tries == CONNECT_TRIES) {
                     throw e;
                 } // else try again
+            } finally {
+                releaseVm(vm);
             }
-            killForkedVm();
+            killForkedVm(vm);
         }
     }
 
-    private synchronized void ensureForkedVmRunning() {
-        if (forkedVm == null || !forkedVm.isAlive()) {
+    private Result call(MultiplexedConnection conn, MethodCall call,
+                        Consumer<Object> partialResults) throws IOException {
+        Consumer<byte[]> partialResponses = payload -> {
             try {
-                forkedVm = new JavaProcessBuilder(ForkedVmServer.class, moduleClasses)
-                        .vmArgs("-XX:-OmitStackTraceInFastThrow")
-                        .addVmArgs(vmArgs.toArray(String[]::new))
-                        .autoExit(true)
-                        .start();
-                var copier = new Thread(new LineCopier(forkedVm.getErrorStream(),
-                        new LineWriterAdapter(System.out)));
-                copier.setDaemon(true);
-                copier.start();
-                port = new Scanner(forkedVm.getInputStream()).nextInt();
+                var result = codec.decodeResult(payload);
+                if (result instanceof ReturnedValue v) {
+                    partialResults.accept(v.value());
+                } else if (result instanceof ThrownException e) {
+                    throw new IOException("could not send partial result", e.exception());
+                }
             } catch (IOException e) {
-                throw new AssertionError(e);
+                throw new UncheckedIOException(e);
+            }
+        };
+        var result = codec.decodeResult(conn.call(codec.id(),
+                peerBlobs -> codec.encodeCall(call, peerBlobs), partialResponses));
+        if (result instanceof ThrownException e && e.exception() instanceof MissingBlobException) {
+            // forked VM has evicted some blobs from its cache, send all again
+            // (the method has not been called, so no partial results were sent)
+            conn.forgetBlobs();
+            result = codec.decodeResult(conn.call(codec.id(),
+                    peerBlobs -> codec.encodeCall(call, peerBlobs), partialResponses));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the current forked VM, starting it (or taking the standby VM of
+     * the launcher) and connecting to it if necessary. The VM and the
+     * connection to it are shared by all threads that call methods in the
+     * forked VM. If the VM is due for recycling, it is replaced by a new one
+     * and destroyed as soon as the calls in flight are finished. Each VM
+     * returned by this method must be released using {@link #releaseVm}.
+     */
+    private synchronized Vm acquireVm() throws IOException {
+        var replacement = current != null;
+        if (current != null && !current.process.process().isAlive()) {
+            current.destroy();
+            current = null;
+        } else if (current != null && !current.connection.isOpen()) {
+            throw new IOException("connection to forked VM is broken");
+        } else if (current != null && current.recycle) {
+            if (current.users == 0) {
+                current.destroy();
+            } else {
+                draining.add(current);
+            }
+            current = null;
+        }
+        if (current == null) {
+            var process = launcher.launch(replacement);
+            try {
+                current = new Vm(process, new MultiplexedConnection(process.address(), sharedMemory));
+            } catch (IOException e) {
+                process.destroy();
+                throw e;
+            }
+        }
+        current.users++;
+        return current;
+    }
+
+    private synchronized void releaseVm(Vm vm) {
+        if (vm != null) {
+            vm.users--;
+            if (vm.users == 0 && draining.remove(vm)) {
+                vm.destroy();
             }
         }
     }
@@ -179,19 +314,54 @@ public class ForkedVmClient implements Closeable {
         exception.setStackTrace(trace.toArray(StackTraceElement[]::new));
     }
 
+    /**
+     * Kills the forked VM, unless the given VM (in which a call has failed)
+     * has already been replaced. This prevents all the calls that were in
+     * flight on a broken connection from killing the new VM one after the
+     * other.
+     */
+    private synchronized void killForkedVm(Vm failed) {
+        if (failed == null || failed == current) {
+            killForkedVm();
+        }
+    }
+
     private synchronized void killForkedVm() {
-        if (forkedVm != null && forkedVm.isAlive()) {
-            forkedVm.destroy();
-            try {
-                forkedVm.waitFor(1, SECONDS);
-            } catch (InterruptedException e) {
-                forkedVm.destroyForcibly();
-            }
+        if (current != null) {
+            current.destroy();
+            current = null;
         }
     }
 
     @Override
     public void close() {
-        killForkedVm();
+        synchronized (this) {
+            killForkedVm();
+            draining.forEach(Vm::destroy);
+            draining.clear();
+        }
+        if (ownsLauncher) {
+            launcher.close();
+        }
+    }
+
+    /**
+     * A forked VM together with the connection to it.
+     */
+    private static class Vm {
+        final ForkedVm process;
+        final MultiplexedConnection connection;
+        int users = 0; // guarded by the client
+        volatile boolean recycle = false;
+
+        Vm(ForkedVm process, MultiplexedConnection connection) {
+            this.process = process;
+            this.connection = connection;
+        }
+
+        void destroy() {
+            connection.close();
+            process.destroy(); // also if dead, to finish a training run (see AppCds)
+        }
     }
 }
@@ -0,0 +1,133 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import com.fasterxml.jackson.databind.Module;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * A fixed-size pool of forked VMs that all use the same VM arguments. Each
+ * call is dispatched to the least-loaded healthy VM, so that concurrent callers
+ * do not all funnel into a single VM and a crash or GC pause of one VM does not
+ * stall the others. The VMs are forked lazily, so a pool that is only used by
+ * a single thread at a time never forks more than one VM. Once a VM of the
+ * pool has been replaced (e.g., because it crashed or was recycled), the pool
+ * also keeps an extra standby VM, which is started in the background and takes
+ * over the next time a VM needs to be replaced (see {@link VmLauncher}).
+ */
+public class ForkedVmPool implements Closeable {
+
+    private final VmLauncher launcher;
+    private final List<ForkedVmClient> clients = new ArrayList<>();
+    private final int[] load; // number of calls in flight, per client
+
+    public ForkedVmPool(int size) {
+        this(size, emptyList(), emptyList());
+    }
+
+    public ForkedVmPool(int size, List<String> vmArgs,
+                        Iterable<Class<? extends Module>> moduleClasses) {
+        this(size, vmArgs, moduleClasses, emptyList());
+    }
+
+    public ForkedVmPool(int size, List<String> vmArgs,
+                        Iterable<Class<? extends Module>> moduleClasses,
+                        Iterable<Class<? extends BinaryModule>> binaryModuleClasses) {
+        this(size, vmArgs, moduleClasses, binaryModuleClasses, RecyclePolicy.NEVER);
+    }
+
+    /**
+     * Creates a pool whose VMs are replaced by new ones whenever they cross
+     * one of the thresholds of the given recycle policy.
+     */
+    public ForkedVmPool(int size, List<String> vmArgs,
+                        Iterable<Class<? extends Module>> moduleClasses,
+                        Iterable<Class<? extends BinaryModule>> binaryModuleClasses,
+                        RecyclePolicy recyclePolicy) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        launcher = new VmLauncher(vmArgs, moduleClasses, binaryModuleClasses, true);
+        for (int i = 0; i < size; i++) {
+            clients.add(new ForkedVmClient(launcher, false, moduleClasses,
+                    binaryModuleClasses, recyclePolicy));
+        }
+        load = new int[size];
+    }
+
+    public List<String> getVmArgs() {
+        return launcher.vmArgs();
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    public <R> R runInForkedVm(Class<?> cls, String methodName,
+                               List<?> args, Class<R> returnType) throws IOException {
+        var i = acquire();
+        try {
+            return clients.get(i).runInForkedVm(cls, methodName, args, returnType);
+        } finally {
+            release(i);
+        }
+    }
+
+    public <R> R runInForkedVm(Class<?> cls, String methodName,
+                               List<? extends Class<?>> paramTypes, List<?> args,
+                               Class<R> returnType) throws IOException {
+        var i = acquire();
+        try {
+            return clients.get(i).runInForkedVm(cls, methodName, paramTypes, args, returnType);
+        } finally {
+            release(i);
+        }
+    }
+
+    public <R> R runInForkedVm(Supplier<MethodCall> callSupplier, Class<R> returnType,
+                               Consumer<Object> partialResults) throws IOException {
+        var i = acquire();
+        try {
+            return clients.get(i).runInForkedVm(callSupplier, returnType, partialResults);
+        } finally {
+            release(i);
+        }
+    }
+
+    /**
+     * Selects the client with the fewest calls in flight, preferring healthy
+     * ones (i.e., clients whose VM is running or not yet started) over those
+     * whose VM has just crashed or failed to respond. Ties are broken by
+     * position, so that additional VMs are only forked under concurrent load.
+     */
+    private synchronized int acquire() {
+        var best = -1;
+        var bestHealthy = false;
+        for (int i = 0; i < clients.size(); i++) {
+            var healthy = clients.get(i).isHealthy();
+            if (best == -1 || healthy && !bestHealthy ||
+                healthy == bestHealthy && load[i] < load[best]) {
+                best = i;
+                bestHealthy = healthy;
+            }
+        }
+        load[best]++;
+        return best;
+    }
+
+    private synchronized void release(int i) {
+        load[i]--;
+    }
+
+    @Override
+    public void close() {
+        clients.forEach(ForkedVmClient::close);
+        launcher.close();
+    }
+}
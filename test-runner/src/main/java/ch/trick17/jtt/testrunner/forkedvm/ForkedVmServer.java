@@ -2,75 +2,215 @@ package ch.trick17.jtt.testrunner.forkedvm;
 
 import ch.trick17.jtt.testrunner.forkedvm.Result.ReturnedValue;
 import ch.trick17.jtt.testrunner.forkedvm.Result.ThrownException;
-import com.fasterxml.jackson.databind.Module;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.io.*;
 import java.lang.reflect.InvocationTargetException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
-import static com.fasterxml.jackson.databind.ObjectMapper.DefaultTyping.JAVA_LANG_OBJECT;
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static ch.trick17.jtt.testrunner.forkedvm.Transport.TCP;
+import static java.util.concurrent.Executors.newVirtualThreadPerTaskExecutor;
 
 public class ForkedVmServer {
 
-    private static ObjectMapper mapper;
+    private static final long BLOB_CACHE_CAPACITY = 64 * 1024 * 1024;
 
+    private static final ExecutorService handlers = newVirtualThreadPerTaskExecutor();
+    private static final BlobCache blobs = new BlobCache(BLOB_CACHE_CAPACITY);
+
+    private static final Codec[] codecs = new Codec[2]; // indexed by codec ID
+    private static final ThreadLocal<Consumer<Object>> currentPartialResults = new ThreadLocal<>();
+    private static final AtomicLong calls = new AtomicLong();
+
+    /**
+     * Expects the name of the requested {@link Transport} as the first
+     * argument, followed by the comma-separated names of the Jackson module
+     * classes and of the binary module classes to use (see
+     * {@link VmLauncher}).
+     * <p>
+     * To minimize the time until the first call can be handled, the server
+     * announces its address before initializing the codecs, so the client can
+     * connect in the meantime, and the Jackson mapper (including the Jackson
+     * modules) is only built if a call actually needs it (see
+     * {@link LazyMapper}).
+     */
     public static void main(String[] args) throws Exception {
-        var modules = new ArrayList<Module>();
-        for (var cls : args) {
-            modules.add((Module) Class.forName(cls).getDeclaredConstructor().newInstance());
+        var transport = Transport.valueOf(args[0]);
+        ServerSocketChannel server;
+        try {
+            server = transport.listen();
+        } catch (IOException | UnsupportedOperationException e) {
+            transport = TCP;
+            server = transport.listen();
         }
-        mapper = new ObjectMapper()
-                .findAndRegisterModules()
-                .registerModules(modules)
-                .activateDefaultTyping(LaissezFaireSubTypeValidator.instance, JAVA_LANG_OBJECT);
-
-        var server = new ServerSocket(0);
-        System.out.println(server.getLocalPort()); // read by the parent process
+        System.out.println(transport.announce(server)); // read by the parent process
         System.out.flush();
 
+        var mapper = new LazyMapper(() -> instantiate(classNames(args[1])));
+        codecs[Codec.JSON] = new JsonCodec(mapper);
+        codecs[Codec.BINARY] = new BinaryCodec(instantiate(classNames(args[2])), mapper);
+
         while (true) {
-            var socket = server.accept();
-            new Thread(() -> handle(socket)).start();
+            var channel = transport.accept(server);
+            handlers.execute(() -> serve(channel));
         }
     }
 
-    private static void handle(Socket socket) {
-        try (socket) {
-            var in = new Scanner(socket.getInputStream(), UTF_8).nextLine();
-            var call = mapper.readValue(in, MethodCall.class);
+    private static List<String> classNames(String arg) {
+        return arg.isEmpty() ? List.of() : List.of(arg.split(","));
+    }
 
-            Result result;
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> instantiate(List<String> classNames) {
+        var instances = new ArrayList<T>();
+        for (var name : classNames) {
             try {
-                var cls = findClass(call.className());
-                var paramTypes = new ArrayList<Class<?>>();
-                for (var typeName : call.paramTypeNames()) {
-                    paramTypes.add(findClass(typeName));
-                }
-                var method = cls.getDeclaredMethod(call.methodName(),
-                        paramTypes.toArray(Class<?>[]::new));
-                method.setAccessible(true);
-                var args = call.args().toArray();
-
-                result = new ReturnedValue(method.invoke(null, args));
-            } catch (InvocationTargetException e) {
-                result = new ThrownException(e.getCause());
+                instances.add((T) Class.forName(name).getDeclaredConstructor().newInstance());
             } catch (ReflectiveOperationException e) {
-                result = new ThrownException(e);
+                throw new IllegalArgumentException("could not instantiate module " + name, e);
             }
+        }
+        return instances;
+    }
 
-            mapper.writeValue(socket.getOutputStream(), result);
+    /**
+     * Reads calls from the given connection until it is closed. Each call is
+     * handled in its own (virtual) thread, so multiple calls can be in flight
+     * at the same time and their results are sent back in the order they
+     * finish, tagged with the ID of the respective call. Calls are decoded
+     * here, not in the handler threads, so that blobs are added to the cache
+     * in the same order in which the client sent them.
+     */
+    private static void serve(SocketChannel channel) {
+        try (channel) {
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            var responses = new Responses(out, handshake(in, out));
+            while (true) {
+                Frame request;
+                try {
+                    request = Frame.readFrom(in, responses.ring());
+                } catch (EOFException e) {
+                    return; // client closed the connection
+                }
+                var codec = codecs[request.codec()];
+                try {
+                    var call = codec.decodeCall(request.payload(), blobs);
+                    handlers.execute(() -> {
+                        Consumer<Object> partialResults = value -> responses.send(request.id(),
+                                codec, new ReturnedValue(value), true);
+                        responses.send(request.id(), codec, invoke(call, partialResults), false);
+                    });
+                } catch (IOException e) {
+                    // includes MissingBlobException, to which the client reacts
+                    responses.send(request.id(), codec, new ThrownException(e), false);
+                }
+            }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    /**
+     * Opens the {@link SharedMemoryRing} requested by the client, if any, and
+     * tells the client whether it can be used.
+     */
+    private static SharedMemoryRing handshake(DataInputStream in,
+                                              DataOutputStream out) throws IOException {
+        var ringFile = in.readUTF();
+        SharedMemoryRing ring = null;
+        if (!ringFile.isEmpty()) {
+            try {
+                ring = SharedMemoryRing.open(Path.of(ringFile));
+                ring.close(); // mapped by both sides now, so the file is not needed anymore
+            } catch (IOException ignored) {}
+        }
+        out.writeBoolean(ring != null);
+        out.flush();
+        return ring;
+    }
+
+    /**
+     * Returns a consumer to which the method that is currently being called
+     * by a client (in the current thread) can pass partial results, which are
+     * sent to the client immediately. The consumer may be passed on to and
+     * used by other threads, as long as the call has not returned. If the
+     * current thread is not handling a call from a client (e.g., because the
+     * method is called directly in the client VM), all results passed to the
+     * consumer are discarded.
+     *
+     * @see ForkedVmClient#runInForkedVm(java.util.function.Supplier, Class, Consumer)
+     */
+    public static Consumer<Object> partialResults() {
+        var partialResults = currentPartialResults.get();
+        return partialResults != null ? partialResults : value -> {};
+    }
+
+    private static Result invoke(MethodCall call, Consumer<Object> partialResults) {
+        currentPartialResults.set(partialResults);
+        try {
+            var cls = findClass(call.className());
+            var paramTypes = new ArrayList<Class<?>>();
+            for (var typeName : call.paramTypeNames()) {
+                paramTypes.add(findClass(typeName));
+            }
+            var method = cls.getDeclaredMethod(call.methodName(),
+                    paramTypes.toArray(Class<?>[]::new));
+            method.setAccessible(true);
+            var args = call.args().toArray();
+
+            return new ReturnedValue(method.invoke(null, args));
+        } catch (InvocationTargetException e) {
+            return new ThrownException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            return new ThrownException(e);
+        } finally {
+            currentPartialResults.remove();
+        }
+    }
+
+    /**
+     * The output side of a connection, to which responses are written by
+     * multiple handler threads.
+     */
+    private record Responses(DataOutputStream out, SharedMemoryRing ring, Lock lock) {
+
+        Responses(DataOutputStream out, SharedMemoryRing ring) {
+            this(out, ring, new ReentrantLock()); // not synchronized, to avoid pinning virtual threads
+        }
+
+        void send(long id, Codec codec, Result result, boolean partial) {
+            try {
+                byte[] payload;
+                try {
+                    payload = codec.encodeResult(result);
+                } catch (IOException e) {
+                    // the client is waiting for a response, so send the error instead
+                    payload = codec.encodeResult(new ThrownException(e));
+                }
+                var stats = partial ? null : VmStats.ofCurrentVm(calls.incrementAndGet());
+                var response = new Frame(id, codec.id(), partial, stats, payload);
+                lock.lock();
+                try {
+                    response.writeTo(out, ring);
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
     private static Class<?> findClass(String className) throws ClassNotFoundException {
         return switch (className) {
             case "byte" -> byte.class;
@@ -0,0 +1,60 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A message exchanged between {@link ForkedVmClient} and
+ * {@link ForkedVmServer}. Each frame is tagged with the ID of the call it
+ * belongs to, so that multiple calls can be in flight on the same connection
+ * and responses can arrive in any order, and with the ID of the {@link Codec}
+ * that was used to encode the payload. A response frame may be marked as
+ * <em>partial</em>, in which case it is followed by more responses for the
+ * same call (see {@link ForkedVmServer#partialResults()}). Final responses
+ * carry the current {@link VmStats} of the forked VM. If the connection has a
+ * {@link SharedMemoryRing}, large payloads are transferred through the ring,
+ * which is indicated by a negative length in the frame header.
+ */
+record Frame(long id, byte codec, boolean partial, VmStats stats, byte[] payload) {
+
+    static Frame readFrom(DataInputStream in, SharedMemoryRing ring) throws IOException {
+        var id = in.readLong();
+        var codec = in.readByte();
+        var partial = in.readBoolean();
+        var stats = in.readBoolean() ? VmStats.readFrom(in) : null;
+        var length = in.readInt();
+        byte[] payload;
+        if (length >= 0) {
+            payload = new byte[length];
+            in.readFully(payload);
+        } else if (ring != null) {
+            payload = ring.read(-length);
+        } else {
+            throw new IOException("unexpected shared-memory frame");
+        }
+        return new Frame(id, codec, partial, stats, payload);
+    }
+
+    /**
+     * Writes this frame to the given stream (and its payload possibly to the
+     * given ring, which may be <code>null</code>) and flushes it. Callers must
+     * make sure that frames are not written concurrently to the same stream.
+     */
+    void writeTo(DataOutputStream out, SharedMemoryRing ring) throws IOException {
+        out.writeLong(id);
+        out.writeByte(codec);
+        out.writeBoolean(partial);
+        out.writeBoolean(stats != null);
+        if (stats != null) {
+            stats.writeTo(out);
+        }
+        if (ring != null && ring.tryWrite(payload)) {
+            out.writeInt(-payload.length);
+        } else {
+            out.writeInt(payload.length);
+            out.write(payload);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,39 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Encodes calls and results as JSON, using Jackson's default typing. This is
+ * much slower and less compact than the {@link BinaryCodec}, but easier to
+ * debug. It is used if the <code>test-runner.jsonCodec</code> system property
+ * is set.
+ */
+class JsonCodec implements Codec {
+
+    private final LazyMapper mapper;
+
+    JsonCodec(LazyMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    public byte id() {
+        return JSON;
+    }
+
+    public byte[] encodeCall(MethodCall call, Set<Digest> peerBlobs) throws IOException {
+        return mapper.get().writeValueAsBytes(call);
+    }
+
+    public MethodCall decodeCall(byte[] bytes, BlobCache blobs) throws IOException {
+        return mapper.get().readValue(bytes, MethodCall.class);
+    }
+
+    public byte[] encodeResult(Result result) throws IOException {
+        return mapper.get().writeValueAsBytes(result);
+    }
+
+    public Result decodeResult(byte[] bytes) throws IOException {
+        return mapper.get().readValue(bytes, Result.class);
+    }
+}
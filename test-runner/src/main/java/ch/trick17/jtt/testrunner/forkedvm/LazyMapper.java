@@ -0,0 +1,51 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static com.fasterxml.jackson.databind.ObjectMapper.DefaultTyping.JAVA_LANG_OBJECT;
+
+/**
+ * The Jackson {@link ObjectMapper} used by the {@link JsonCodec} and (as a
+ * fallback) by the {@link BinaryCodec}, which is built on first use. Building
+ * a mapper loads and initializes hundreds of classes, which adds noticeably
+ * to the startup time of a forked VM, while the binary codec often does not
+ * need it at all. For the same reason, the standard modules are registered
+ * explicitly instead of using {@link ObjectMapper#findAndRegisterModules()},
+ * which scans the class path.
+ */
+class LazyMapper {
+
+    private final Supplier<List<Module>> modules;
+    private volatile ObjectMapper mapper;
+
+    /**
+     * Creates a lazy mapper with the given additional modules, which are
+     * only requested when the mapper is built.
+     */
+    LazyMapper(Supplier<List<Module>> modules) {
+        this.modules = modules;
+    }
+
+    ObjectMapper get() {
+        var result = mapper;
+        if (result == null) {
+            synchronized (this) {
+                result = mapper;
+                if (result == null) {
+                    mapper = result = new ObjectMapper()
+                            .registerModules(new ParameterNamesModule(), new JavaTimeModule())
+                            .registerModules(modules.get())
+                            .activateDefaultTyping(LaissezFaireSubTypeValidator.instance, JAVA_LANG_OBJECT);
+                }
+            }
+        }
+        return result;
+    }
+}
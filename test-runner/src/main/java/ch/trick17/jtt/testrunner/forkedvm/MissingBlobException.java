@@ -0,0 +1,14 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.IOException;
+
+/**
+ * Thrown in the forked VM when a call refers to a blob that is not (or no
+ * longer) in the {@link BlobCache}. The client reacts by sending the call
+ * again, this time including all blobs.
+ */
+class MissingBlobException extends IOException {
+    public MissingBlobException(String message) {
+        super(message);
+    }
+}
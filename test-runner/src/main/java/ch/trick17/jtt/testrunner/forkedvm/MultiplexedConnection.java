@@ -0,0 +1,240 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A long-lived connection to a {@link ForkedVmServer}, which can be used by
+ * multiple threads at the same time. Each request is tagged with a unique ID
+ * and a dedicated reader thread hands each response to the thread waiting for
+ * the response with the same ID. If the connection breaks (e.g., because the
+ * forked VM died), all calls in flight fail with an {@link IOException}.
+ */
+class MultiplexedConnection implements Closeable {
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final SharedMemoryRing ring; // null if not used
+    private final ReentrantLock outLock = new ReentrantLock();
+    private final Set<Digest> peerBlobs = new HashSet<>(); // guarded by outLock
+    private final Map<Long, PendingCall> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile IOException failure;
+    private volatile VmStats stats;
+
+    /**
+     * Connects to a forked VM at the given address, as announced by the
+     * {@link ForkedVmServer} (see {@link Transport}). If
+     * <code>sharedMemory</code> is <code>true</code>, a
+     * {@link SharedMemoryRing} is set up for large payloads, unless this fails
+     * on either side, in which case all payloads go through the socket.
+     */
+    MultiplexedConnection(String address, boolean sharedMemory) throws IOException {
+        channel = Transport.connectTo(address);
+        // for socket channels, these streams support reading and writing concurrently
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        ring = handshake(sharedMemory);
+
+        var reader = new Thread(this::readResponses, "forked-vm-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private SharedMemoryRing handshake(boolean sharedMemory) throws IOException {
+        SharedMemoryRing ring = null;
+        if (sharedMemory) {
+            try {
+                ring = SharedMemoryRing.create();
+            } catch (IOException ignored) {}
+        }
+        out.writeUTF(ring == null ? "" : ring.file().toString());
+        out.flush();
+        var accepted = in.readBoolean();
+        if (ring != null && !accepted) {
+            ring.close();
+            ring = null;
+        }
+        return ring;
+    }
+
+    /**
+     * Returns the statistics that the forked VM sent along with the latest
+     * response, or <code>null</code> if there has not been any response yet.
+     */
+    VmStats stats() {
+        return stats;
+    }
+
+    boolean isOpen() {
+        return failure == null;
+    }
+
+    /**
+     * Sends a request and waits for the (final) response. Partial responses
+     * are passed to the given consumer, in the reader thread. If the consumer
+     * throws an exception, the call fails. The request is encoded while
+     * holding the lock for this connection's output stream, so that the
+     * forked VM receives requests in the same order in which their blobs are
+     * recorded as sent (see {@link Codec#encodeCall}).
+     */
+    byte[] call(byte codec, RequestEncoder encoder,
+                Consumer<byte[]> partialResponses) throws IOException {
+        var id = nextId.getAndIncrement();
+        var response = new PendingCall(partialResponses);
+        pending.put(id, response);
+        try {
+            // check after registering the call, so it cannot be missed by fail()
+            if (failure != null) {
+                throw new IOException("connection to forked VM is broken", failure);
+            }
+            outLock.lock();
+            try {
+                var request = encoder.encode(peerBlobs);
+                try {
+                    new Frame(id, codec, false, null, request).writeTo(out, ring);
+                } catch (IOException e) {
+                    fail(e);
+                    throw e;
+                }
+            } finally {
+                outLock.unlock();
+            }
+            return response.await();
+        } finally {
+            pending.remove(id);
+        }
+    }
+
+    /**
+     * Forgets which blobs have been sent to the forked VM, so that they are
+     * sent again with the next request. Used when the forked VM has evicted
+     * some of them from its cache.
+     */
+    void forgetBlobs() {
+        outLock.lock();
+        try {
+            peerBlobs.clear();
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    private void readResponses() {
+        try {
+            while (true) {
+                var frame = Frame.readFrom(in, ring);
+                if (frame.partial()) {
+                    var response = pending.get(frame.id());
+                    if (response != null) {
+                        response.partial(frame.payload());
+                    }
+                } else {
+                    if (frame.stats() != null) {
+                        stats = frame.stats();
+                    }
+                    var response = pending.remove(frame.id());
+                    if (response != null) {
+                        response.complete(frame.payload());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            failure = e;
+        }
+        try {
+            channel.close();
+            if (ring != null) {
+                ring.close();
+            }
+        } catch (IOException ignored) {}
+        pending.values().forEach(c -> c.fail(e));
+    }
+
+    @Override
+    public void close() {
+        fail(new IOException("connection closed"));
+    }
+
+    interface RequestEncoder {
+        byte[] encode(Set<Digest> peerBlobs) throws IOException;
+    }
+
+    /**
+     * A call waiting for its response. Unlike with a {@link CompletableFuture}
+     * or a {@link java.util.concurrent.locks.Condition}, waiting is not
+     * interruptible (like a blocking socket read) and does not make a
+     * {@link ForkJoinPool} start compensation threads, which would cause
+     * callers like the <code>BatchGrader</code> to exceed their configured
+     * parallelism.
+     */
+    private static class PendingCall {
+        private final Thread waiter = Thread.currentThread();
+        private final Consumer<byte[]> partialResponses;
+        private final AtomicReference<Object> outcome = new AtomicReference<>(); // response or IOException
+
+        PendingCall(Consumer<byte[]> partialResponses) {
+            this.partialResponses = partialResponses;
+        }
+
+        void partial(byte[] response) {
+            if (outcome.get() == null) {
+                try {
+                    partialResponses.accept(response);
+                } catch (RuntimeException e) {
+                    fail(new IOException("could not process partial response", e));
+                }
+            }
+        }
+
+        void complete(byte[] response) {
+            if (outcome.compareAndSet(null, response)) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        void fail(IOException e) {
+            if (outcome.compareAndSet(null, e)) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        byte[] await() throws IOException {
+            var interrupted = false;
+            Object result;
+            while ((result = outcome.get()) == null) {
+                LockSupport.park(this);
+                interrupted |= Thread.interrupted();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (result instanceof IOException e) {
+                throw new IOException("connection to forked VM is broken", e);
+            }
+            return (byte[]) result;
+        }
+    }
+}
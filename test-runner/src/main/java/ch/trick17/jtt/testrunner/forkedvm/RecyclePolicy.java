@@ -0,0 +1,61 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+/**
+ * Defines when a forked VM should be replaced by a fresh one, based on the
+ * {@link VmStats} it reports. Long-lived VMs accumulate metaspace, code cache,
+ * and other resources over thousands of calls (e.g., because every sandbox
+ * loads the code under test in a new class loader), so recycling them before
+ * they run out of memory keeps the throughput stable. A VM that crosses any
+ * of the thresholds is recycled gracefully: new calls go to a new VM, while
+ * the calls in flight finish in the old one.
+ *
+ * @param maxCalls         the maximum number of calls a VM handles
+ * @param maxHeapUsage     the maximum fraction of the maximum heap size that
+ *                         may be in use after garbage collection
+ * @param maxMetaspaceUsed the maximum amount of metaspace in use, in bytes
+ * @param maxLoadedClasses the maximum number of loaded classes
+ * @param maxGcTimeRatio   the maximum fraction of the VM's uptime that may
+ *                         have been spent on garbage collection
+ */
+public record RecyclePolicy(
+        long maxCalls,
+        double maxHeapUsage,
+        long maxMetaspaceUsed,
+        int maxLoadedClasses,
+        double maxGcTimeRatio) {
+
+    /**
+     * A policy that never recycles a VM (as long as it is working).
+     */
+    public static final RecyclePolicy NEVER = new RecyclePolicy(Long.MAX_VALUE,
+            Double.POSITIVE_INFINITY, Long.MAX_VALUE, Integer.MAX_VALUE, Double.POSITIVE_INFINITY);
+
+    /**
+     * A policy with thresholds that are only reached by VMs that have become
+     * (or are about to become) noticeably slower, e.g., because they spend a
+     * lot of time on garbage collection.
+     */
+    public static final RecyclePolicy DEFAULT = new RecyclePolicy(Long.MAX_VALUE,
+            0.75, 1024L * 1024 * 1024, 500_000, 0.25);
+
+    public RecyclePolicy {
+        if (maxCalls <= 0 || maxHeapUsage <= 0 || maxMetaspaceUsed <= 0 ||
+            maxLoadedClasses <= 0 || maxGcTimeRatio <= 0) {
+            throw new IllegalArgumentException("thresholds must be positive");
+        }
+    }
+
+    public RecyclePolicy withMaxCalls(long maxCalls) {
+        return new RecyclePolicy(maxCalls, maxHeapUsage, maxMetaspaceUsed,
+                maxLoadedClasses, maxGcTimeRatio);
+    }
+
+    public boolean shouldRecycle(VmStats stats) {
+        return stats.calls() >= maxCalls
+               || stats.heapMax() > 0 && stats.heapUsed() > maxHeapUsage * stats.heapMax()
+               || stats.metaspaceUsed() > maxMetaspaceUsed
+               || stats.loadedClasses() > maxLoadedClasses
+               || stats.uptimeMillis() > 0
+                  && stats.gcTimeMillis() > maxGcTimeRatio * stats.uptimeMillis();
+    }
+}
@@ -0,0 +1,149 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A pair of ring buffers in a memory-mapped file, through which the client
+ * and the server of a {@link MultiplexedConnection} can exchange large frame
+ * payloads without copying them through the socket. The socket then only
+ * carries the frame header, which signals the receiver that the payload is
+ * waiting in the ring (see {@link Frame}). Each side writes to one ring and
+ * reads from the other. Since frames are read in the order in which they were
+ * written, the position of each payload does not need to be transferred.
+ * <p>
+ * Writing must be synchronized by the caller (e.g., using the same lock that
+ * guards the socket output stream) and reading must only happen in a single
+ * thread.
+ */
+class SharedMemoryRing implements Closeable {
+
+    static final int CAPACITY = 64 * 1024 * 1024; // per direction
+    /** Payloads smaller than this are cheaper to send through the socket */
+    static final int MIN_PAYLOAD = 64 * 1024;
+
+    // layout: one header for each ring (separate cache lines), then the data
+    private static final int HEADER_SIZE = 64;
+    private static final int WRITTEN = 0;  // total number of bytes written to the ring
+    private static final int CONSUMED = 8; // total number of bytes read from the ring
+    private static final int DATA = 2 * HEADER_SIZE;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(
+            long[].class, ByteOrder.nativeOrder());
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int outRing;
+    private final int inRing;
+    private long written = 0;
+    private long consumed = 0;
+
+    /**
+     * Creates a new shared-memory file, in <code>/dev/shm</code> if available,
+     * for the client side of a connection.
+     */
+    static SharedMemoryRing create() throws IOException {
+        var shm = Path.of("/dev/shm");
+        var file = Files.isDirectory(shm) && Files.isWritable(shm)
+                ? Files.createTempFile(shm, "forked-vm", ".ring")
+                : Files.createTempFile("forked-vm", ".ring");
+        try {
+            return new SharedMemoryRing(file, 0, 1);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the shared-memory file created by the client, for the server side
+     * of a connection.
+     */
+    static SharedMemoryRing open(Path file) throws IOException {
+        return new SharedMemoryRing(file, 1, 0);
+    }
+
+    private SharedMemoryRing(Path file, int outRing, int inRing) throws IOException {
+        this.file = file;
+        try (var channel = FileChannel.open(file, READ, WRITE)) {
+            // file is sparse, so memory is only used for the parts that are used
+            buffer = channel.map(READ_WRITE, 0, DATA + 2L * CAPACITY);
+        }
+        this.outRing = outRing;
+        this.inRing = inRing;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * Writes the given payload to the outgoing ring, if it is large enough to
+     * be worth it and if there is enough space. Otherwise, returns
+     * <code>false</code> and the payload needs to be sent through the socket.
+     */
+    boolean tryWrite(byte[] payload) {
+        if (payload.length < MIN_PAYLOAD) {
+            return false;
+        }
+        var peerConsumed = (long) LONG.getAcquire(buffer, header(outRing) + CONSUMED);
+        if (payload.length > CAPACITY - (written - peerConsumed)) {
+            return false;
+        }
+        copy(payload, outRing, written, true);
+        written += payload.length;
+        LONG.setRelease(buffer, header(outRing) + WRITTEN, written);
+        return true;
+    }
+
+    /**
+     * Reads the next payload, with the given length, from the incoming ring.
+     */
+    byte[] read(int length) throws IOException {
+        var peerWritten = (long) LONG.getAcquire(buffer, header(inRing) + WRITTEN);
+        if (length > peerWritten - consumed) {
+            throw new IOException("shared-memory ring is out of sync");
+        }
+        var payload = new byte[length];
+        copy(payload, inRing, consumed, false);
+        consumed += length;
+        LONG.setRelease(buffer, header(inRing) + CONSUMED, consumed);
+        return payload;
+    }
+
+    private void copy(byte[] bytes, int ring, long position, boolean write) {
+        var start = (int) (position % CAPACITY);
+        var first = Math.min(bytes.length, CAPACITY - start); // rest wraps around
+        var data = DATA + ring * CAPACITY;
+        if (write) {
+            buffer.put(data + start, bytes, 0, first);
+            buffer.put(data, bytes, first, bytes.length - first);
+        } else {
+            buffer.get(data + start, bytes, 0, first);
+            buffer.get(data, bytes, first, bytes.length - first);
+        }
+    }
+
+    private static int header(int ring) {
+        return ring * HEADER_SIZE;
+    }
+
+    /**
+     * Deletes the shared-memory file. Once both sides have mapped it, the
+     * mapping stays valid until it is garbage-collected.
+     */
+    @Override
+    public void close() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,108 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.net.StandardProtocolFamily.UNIX;
+import static java.net.StandardSocketOptions.TCP_NODELAY;
+
+/**
+ * The kind of socket over which {@link ForkedVmClient} and
+ * {@link ForkedVmServer} communicate. Unix domain sockets have a lower
+ * latency than TCP and do not use up local ports, so they are used by default
+ * on Linux. Elsewhere, or if the <code>test-runner.tcpTransport</code> system
+ * property is set, TCP on the loopback interface is used.
+ * <p>
+ * The server announces the address it listens on in the form
+ * <code>&lt;transport>:&lt;address></code>, so it can fall back to TCP if the
+ * requested transport is not available.
+ */
+enum Transport {
+
+    TCP {
+        ServerSocketChannel listen() throws IOException {
+            var server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            return server;
+        }
+
+        String address(ServerSocketChannel server) throws IOException {
+            return String.valueOf(((InetSocketAddress) server.getLocalAddress()).getPort());
+        }
+
+        SocketChannel connect(String address) throws IOException {
+            var port = Integer.parseInt(address);
+            var channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            channel.setOption(TCP_NODELAY, true);
+            return channel;
+        }
+
+        SocketChannel accept(ServerSocketChannel server) throws IOException {
+            var channel = server.accept();
+            channel.setOption(TCP_NODELAY, true);
+            return channel;
+        }
+    },
+
+    UNIX_DOMAIN {
+        ServerSocketChannel listen() throws IOException {
+            var dir = Files.createTempDirectory("forked-vm");
+            var file = dir.resolve("socket");
+            // delete in reverse order of registration, i.e., the file first
+            dir.toFile().deleteOnExit();
+            file.toFile().deleteOnExit();
+            var server = ServerSocketChannel.open(UNIX);
+            server.bind(UnixDomainSocketAddress.of(file));
+            return server;
+        }
+
+        String address(ServerSocketChannel server) throws IOException {
+            return ((UnixDomainSocketAddress) server.getLocalAddress()).getPath().toString();
+        }
+
+        SocketChannel connect(String address) throws IOException {
+            return SocketChannel.open(UnixDomainSocketAddress.of(Path.of(address)));
+        }
+
+        SocketChannel accept(ServerSocketChannel server) throws IOException {
+            return server.accept();
+        }
+    };
+
+    static Transport preferred() {
+        if (System.getProperties().containsKey("test-runner.tcpTransport")) {
+            return TCP;
+        }
+        return System.getProperty("os.name").startsWith("Linux") ? UNIX_DOMAIN : TCP;
+    }
+
+    abstract ServerSocketChannel listen() throws IOException;
+
+    abstract String address(ServerSocketChannel server) throws IOException;
+
+    abstract SocketChannel connect(String address) throws IOException;
+
+    abstract SocketChannel accept(ServerSocketChannel server) throws IOException;
+
+    /**
+     * Connects to the given address, as announced by the server (see
+     * {@link #announce}).
+     */
+    static SocketChannel connectTo(String announced) throws IOException {
+        var parts = announced.split(":", 2);
+        if (parts.length < 2) {
+            throw new IOException("invalid forked VM address: " + announced);
+        }
+        return valueOf(parts[0]).connect(parts[1]);
+    }
+
+    String announce(ServerSocketChannel server) throws IOException {
+        return name() + ":" + address(server);
+    }
+}
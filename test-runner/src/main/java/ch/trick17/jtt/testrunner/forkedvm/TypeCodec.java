@@ -0,0 +1,41 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.IOException;
+
+/**
+ * Encodes values of a specific type for the {@link BinaryCodec}. Codecs are
+ * looked up by the exact class of a value, so a codec for a class does not
+ * apply to its subclasses. Codecs are provided by {@link BinaryModule}s.
+ */
+public interface TypeCodec<T> {
+
+    Class<T> type();
+
+    void write(T value, BinaryOutput out) throws IOException;
+
+    T read(BinaryInput in) throws IOException;
+
+    static <T> TypeCodec<T> of(Class<T> type, Writer<T> writer, Reader<T> reader) {
+        return new TypeCodec<>() {
+            public Class<T> type() {
+                return type;
+            }
+
+            public void write(T value, BinaryOutput out) throws IOException {
+                writer.write(value, out);
+            }
+
+            public T read(BinaryInput in) throws IOException {
+                return reader.read(in);
+            }
+        };
+    }
+
+    interface Writer<T> {
+        void write(T value, BinaryOutput out) throws IOException;
+    }
+
+    interface Reader<T> {
+        T read(BinaryInput in) throws IOException;
+    }
+}
@@ -0,0 +1,225 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import ch.trick17.javaprocesses.JavaProcessBuilder;
+import ch.trick17.javaprocesses.util.LineCopier;
+import ch.trick17.javaprocesses.util.LineWriterAdapter;
+import com.fasterxml.jackson.databind.Module;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.StringJoiner;
+
+import static java.util.List.copyOf;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Starts the forked VMs for one or more {@link ForkedVmClient}s that use the
+ * same configuration. Starting a VM takes a second or more, during which the
+ * threads that want to call methods in that VM are blocked. To avoid this,
+ * the launcher can keep a <em>standby</em> VM, which is started in the
+ * background and handed out instantly when a VM needs to be replaced (e.g.,
+ * after the previous one crashed or was recycled). Since the standby VM is an
+ * extra process, which takes up memory while it is idle, it is only started
+ * once the first VM has been replaced. From then on, every time the standby VM
+ * is taken, a new one is started in the background. In addition, VMs can be
+ * started using an AppCDS archive (see {@link AppCds}).
+ */
+class VmLauncher implements Closeable {
+
+    private final List<String> vmArgs;
+    private final List<String> serverArgs = new ArrayList<>();
+    private final boolean keepStandby;
+    private final AppCds appCds;
+
+    private Standby standby; // guarded by this
+    private boolean closed;  // guarded by this
+
+    VmLauncher(List<String> vmArgs,
+               Iterable<Class<? extends Module>> moduleClasses,
+               Iterable<Class<? extends BinaryModule>> binaryModuleClasses,
+               boolean keepStandby) {
+        this.vmArgs = copyOf(vmArgs);
+        serverArgs.add(Transport.preferred().name());
+        serverArgs.add(classNames(moduleClasses));
+        serverArgs.add(classNames(binaryModuleClasses));
+        this.keepStandby = keepStandby;
+        appCds = AppCds.forVmArgs(vmArgs);
+    }
+
+    private static String classNames(Iterable<? extends Class<?>> classes) {
+        var names = new StringJoiner(",");
+        classes.forEach(cls -> names.add(cls.getName()));
+        return names.toString();
+    }
+
+    List<String> vmArgs() {
+        return vmArgs;
+    }
+
+    /**
+     * Returns a newly started VM, which is the standby VM if there is one and
+     * it is still alive. If the new VM is a replacement for a previous one,
+     * a new standby VM is started in the background (if the launcher keeps
+     * one). The caller is responsible for destroying the VM.
+     */
+    ForkedVm launch(boolean replacement) throws IOException {
+        if (!keepStandby) {
+            return start(true);
+        }
+        Standby taken;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("launcher is closed");
+            }
+            taken = standby;
+            if (replacement || taken != null) {
+                standby = new Standby();
+            }
+        }
+        if (taken != null) {
+            var vm = taken.await();
+            if (vm != null && vm.process().isAlive()) {
+                return vm;
+            } else if (vm != null) {
+                vm.destroy();
+            }
+        }
+        return start(true);
+    }
+
+    /**
+     * Starts a new VM. Only VMs that are used right away may become the
+     * training run for the AppCDS archive, since a training run that handles
+     * no calls would produce an archive without the classes needed for them.
+     */
+    private ForkedVm start(boolean mayTrain) throws IOException {
+        var allVmArgs = new ArrayList<>(vmArgs);
+        AppCds.Training training = null;
+        if (appCds != null) {
+            training = mayTrain ? appCds.startTraining() : null;
+            allVmArgs.addAll(training != null ? training.vmArgs() : appCds.vmArgs());
+        }
+        Process process;
+        try {
+            process = new JavaProcessBuilder(ForkedVmServer.class, serverArgs)
+                    .vmArgs("-XX:-OmitStackTraceInFastThrow")
+                    .addVmArgs(allVmArgs.toArray(String[]::new))
+                    .autoExit(true)
+                    .start();
+        } catch (IOException | RuntimeException e) {
+            if (training != null) {
+                training.abort();
+            }
+            throw e;
+        }
+        var copier = new Thread(new LineCopier(process.getErrorStream(),
+                new LineWriterAdapter(System.out)));
+        copier.setDaemon(true);
+        copier.start();
+        var scanner = new Scanner(process.getInputStream());
+        if (!scanner.hasNextLine()) {
+            process.destroyForcibly();
+            if (training != null) {
+                training.abort();
+            }
+            throw new IOException("forked VM did not start");
+        }
+        return new ForkedVm(process, scanner.nextLine(), training);
+    }
+
+    /**
+     * Destroys the standby VM, if any. VMs that have been returned by
+     * {@link #launch} are not affected.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (standby != null) {
+                standby.discard();
+                standby = null;
+            }
+        }
+    }
+
+    /**
+     * A forked VM, which may be the training run for an AppCDS archive.
+     */
+    record ForkedVm(Process process, String address, AppCds.Training training) {
+        void destroy() {
+            if (training != null) {
+                training.finish(process);
+                return;
+            }
+            process.destroy();
+            try {
+                if (!process.waitFor(1, SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A VM that is being started in the background. Waiting for it uses
+     * {@link Object#wait()}, which (unlike a
+     * {@link java.util.concurrent.CompletableFuture}) does not make a
+     * {@link java.util.concurrent.ForkJoinPool} start compensation threads.
+     */
+    private class Standby {
+        private ForkedVm vm;
+        private boolean done;
+        private boolean discarded;
+
+        Standby() {
+            var thread = new Thread(this::start, "forked-vm-standby");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void start() {
+            ForkedVm vm = null;
+            try {
+                vm = VmLauncher.this.start(false);
+            } catch (IOException ignored) {
+                // caller will try again synchronously
+            }
+            synchronized (this) {
+                this.vm = vm;
+                done = true;
+                notifyAll();
+                if (discarded && vm != null) {
+                    vm.destroy();
+                }
+            }
+        }
+
+        synchronized ForkedVm await() {
+            var interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return vm;
+        }
+
+        synchronized void discard() {
+            discarded = true;
+            if (done && vm != null) {
+                vm.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static java.lang.management.MemoryType.HEAP;
+
+/**
+ * Statistics about the resource usage of a forked VM, which are sent to the
+ * client along with the result of every call (see {@link Frame}).
+ *
+ * @param calls          the number of calls the VM has handled so far
+ * @param uptimeMillis   the time since the VM was started
+ * @param heapUsed       the heap memory in use after the last garbage
+ *                       collection (or currently in use, if the VM does not
+ *                       provide this information), in bytes
+ * @param heapMax        the maximum heap size, in bytes, or -1 if undefined
+ * @param metaspaceUsed  the metaspace memory currently in use, in bytes
+ * @param loadedClasses  the number of currently loaded classes
+ * @param gcTimeMillis   the total time spent on garbage collection
+ */
+public record VmStats(
+        long calls,
+        long uptimeMillis,
+        long heapUsed,
+        long heapMax,
+        long metaspaceUsed,
+        int loadedClasses,
+        long gcTimeMillis) {
+
+    /**
+     * Collects the statistics for the current VM.
+     */
+    static VmStats ofCurrentVm(long calls) {
+        long heapUsed = 0;
+        long metaspaceUsed = 0;
+        for (var pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == HEAP) {
+                var afterGc = pool.getCollectionUsage();
+                heapUsed += afterGc != null && afterGc.getUsed() > 0
+                        ? afterGc.getUsed()
+                        : pool.getUsage().getUsed();
+            } else if (pool.getName().equals("Metaspace")) {
+                metaspaceUsed = pool.getUsage().getUsed();
+            }
+        }
+        long gcTime = 0;
+        for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+        return new VmStats(calls,
+                ManagementFactory.getRuntimeMXBean().getUptime(),
+                heapUsed,
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax(),
+                metaspaceUsed,
+                ManagementFactory.getClassLoadingMXBean().getLoadedClassCount(),
+                gcTime);
+    }
+
+    static VmStats readFrom(DataInputStream in) throws IOException {
+        return new VmStats(in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                in.readLong(), in.readInt(), in.readLong());
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(calls);
+        out.writeLong(uptimeMillis);
+        out.writeLong(heapUsed);
+        out.writeLong(heapMax);
+        out.writeLong(metaspaceUsed);
+        out.writeInt(loadedClasses);
+        out.writeLong(gcTimeMillis);
+    }
+}
@@ -0,0 +1,188 @@
+package ch.trick17.jtt.testrunner;
+
+import ch.trick17.jtt.memcompile.ClassPath;
+import ch.trick17.jtt.memcompile.InMemCompilation;
+import ch.trick17.jtt.memcompile.InMemSource;
+import ch.trick17.jtt.testrunner.TestRunner.Task;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import static ch.trick17.jtt.memcompile.Compiler.JAVAC;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestDiscoveryTest {
+
+    @Test
+    void order() throws IOException {
+        var task = task("""
+                import org.junit.jupiter.api.*;
+
+                class BTest {
+                    @Test void c() {}
+                    @Test void a() {}
+                    @Test @Order(1) void z() {}
+                    @Test @Disabled void b() {}
+                    void helper() {}
+                }
+                @Order(1)
+                class ATest {
+                    @RepeatedTest(2) void x() {}
+                    @Test void a() {}
+                }
+                class CTest {
+                    @Test void b() {}
+                }
+                """, "CTest", "BTest", "ATest");
+        var tests = TestDiscovery.scan(task);
+        assertNotNull(tests);
+        assertEquals(List.of(
+                "ATest.a", "ATest.x",
+                "BTest.z", "BTest.a", "BTest.b", "BTest.c",
+                "CTest.b"), names(tests));
+        assertEquals(TestDiscovery.discoverWithJUnit(task), tests);
+    }
+
+    @Test
+    void parameters() throws IOException {
+        var task = task("""
+                import org.junit.jupiter.api.*;
+                import org.junit.jupiter.params.ParameterizedTest;
+                import org.junit.jupiter.params.provider.*;
+
+                class ParamTest {
+                    @Test void test() {}
+                    @ParameterizedTest @ValueSource(ints = {1, 2})
+                    void test(int i) {}
+                    @ParameterizedTest @ValueSource(strings = "a")
+                    void test(String s) {}
+                    @Test void info(TestInfo info, TestReporter reporter) {}
+                    @ParameterizedTest @MethodSource("args")
+                    void arrays(int[] a, String[][] b, Map.Entry<String, Integer> c) {}
+                    static List<Arguments> args() { return List.of(); }
+                    @TestFactory List<DynamicTest> factory() { return List.of(); }
+                    static class Helper {}
+                }
+                """.replace("import org.junit", "import java.util.*;\nimport org.junit"),
+                "ParamTest");
+        var tests = TestDiscovery.scan(task);
+        assertNotNull(tests);
+        assertEquals(TestDiscovery.discoverWithJUnit(task), tests);
+        assertEquals(List.of(
+                "ParamTest.arrays", "ParamTest.factory", "ParamTest.info",
+                "ParamTest.test", "ParamTest.test", "ParamTest.test"), names(tests));
+        assertEquals("[I, [[Ljava.lang.String;, java.util.Map$Entry",
+                tests.get(0).source().getMethodParameterTypes());
+    }
+
+    @Test
+    void timeouts() throws IOException {
+        var task = task("""
+                import org.junit.jupiter.api.*;
+                import ch.trick17.jtt.junitextensions.RepetitionTimeout;
+                import java.util.concurrent.TimeUnit;
+
+                @Timeout(5)
+                class TimeoutTest {
+                    @Test void a() {}
+                    @Test @Timeout(value = 100, unit = TimeUnit.MILLISECONDS) void b() {}
+                    @Test @RepetitionTimeout(2) void c() {}
+                }
+                """, "TimeoutTest");
+        var tests = TestDiscovery.scan(task);
+        assertNotNull(tests);
+        assertEquals(TestDiscovery.discoverWithJUnit(task), tests);
+        assertEquals(Duration.ofSeconds(5), tests.get(0).junitTimeout());
+        assertEquals(Duration.ofMillis(100), tests.get(1).junitTimeout());
+        assertEquals(Duration.ofSeconds(2), tests.get(2).repetitionTimeout());
+        assertNull(tests.get(0).repetitionTimeout());
+    }
+
+    @Test
+    void unsupported() throws IOException {
+        var task = task("""
+                import org.junit.jupiter.api.*;
+
+                class NestedTest {
+                    @Test void a() {}
+                    @Nested class Inner {
+                        @Test void b() {}
+                    }
+                }
+                abstract class Base {
+                    @Test void inherited() {}
+                }
+                class SubTest extends Base {
+                    @Test void a() {}
+                }
+                @DisplayName("Custom")
+                class DisplayNameTest {
+                    @Test void a() {}
+                }
+                """, "NestedTest");
+        assertNull(TestDiscovery.scan(task));
+        assertEquals(List.of("NestedTest.a", "NestedTest$Inner.b"),
+                names(TestDiscovery.discover(task)));
+        assertNull(TestDiscovery.scan(
+                new Task("SubTest", task.sandboxedCode(), task.supportCode())));
+        assertNull(TestDiscovery.scan(
+                new Task("DisplayNameTest", task.sandboxedCode(), task.supportCode())));
+    }
+
+    @Test
+    void junitSystemProperties() throws IOException {
+        var task = task("""
+                import org.junit.jupiter.api.*;
+
+                class UnderscoreTest {
+                    @Test void a_b() {}
+                    @Test void aB() {}
+                }
+                """, "UnderscoreTest");
+        assertEquals(List.of("UnderscoreTest.aB", "UnderscoreTest.a_b"),
+                names(TestDiscovery.discover(task)));
+
+        System.setProperty("junit.jupiter.displayname.generator.default",
+                "org.junit.jupiter.api.DisplayNameGenerator$ReplaceUnderscores");
+        try {
+            // "a b" comes before "aB"
+            assertNull(TestDiscovery.scan(task));
+            assertEquals(List.of("UnderscoreTest.a_b", "UnderscoreTest.aB"),
+                    names(TestDiscovery.discover(task)));
+        } finally {
+            System.clearProperty("junit.jupiter.displayname.generator.default");
+        }
+    }
+
+    @Test
+    void cache() throws IOException {
+        var code = """
+                import org.junit.jupiter.api.*;
+
+                class CachedTest {
+                    @Test void a() {}
+                }
+                """;
+        var first = TestDiscovery.discover(task(code, "CachedTest"));
+        // the same test classes, compiled again, lead to the same cache key
+        assertSame(first, TestDiscovery.discover(task(code, "CachedTest")));
+        var changed = TestDiscovery.discover(task(code.replace("a()", "b()"), "CachedTest"));
+        assertEquals(List.of("CachedTest.b"), names(changed));
+    }
+
+    private static Task task(String tests, String... testClassNames) throws IOException {
+        var classes = InMemCompilation.compile(JAVAC,
+                List.of(InMemSource.fromString(tests)),
+                ClassPath.fromCurrent()).output();
+        return new Task(List.of(testClassNames),
+                ClassPath.empty(), ClassPath.fromCurrent().withMemory(classes));
+    }
+
+    private static List<String> names(List<TestDiscovery.DiscoveredTest> tests) {
+        return tests.stream()
+                .map(t -> t.source().getClassName() + "." + t.source().getMethodName())
+                .toList();
+    }
+}
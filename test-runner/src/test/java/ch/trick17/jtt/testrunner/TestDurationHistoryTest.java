@@ -0,0 +1,76 @@
+package ch.trick17.jtt.testrunner;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestDurationHistoryTest {
+
+    static final TestMethod FAST = new TestMethod("FooTest", "fast");
+    static final TestMethod SLOW = new TestMethod("FooTest.Nested", "slow");
+    static final TestMethod OTHER = new TestMethod("BarTest", "other");
+
+    @Test
+    void percentile() {
+        var history = new TestDurationHistory();
+        assertNull(history.percentile(FAST, 0.5));
+        for (int i = 1; i <= 100; i++) {
+            history.record(FAST, Duration.ofMillis(i));
+        }
+        assertEquals(100, history.samples(FAST));
+        assertEquals(0, history.samples(SLOW));
+
+        // percentiles are overestimated by at most one bucket (~19%)
+        var median = history.percentile(FAST, 0.5).toMillis();
+        assertTrue(median >= 50 && median <= 60, String.valueOf(median));
+        var max = history.percentile(FAST, 1.0).toMillis();
+        assertTrue(max >= 100 && max <= 120, String.valueOf(max));
+    }
+
+    @Test
+    void saveAndLoad() throws IOException {
+        var file = Files.createTempFile("durations", ".tsv");
+        try {
+            Files.delete(file);
+            var history = new TestDurationHistory(file);
+            history.record(FAST, Duration.ofMillis(10));
+            history.record(SLOW, Duration.ofSeconds(2));
+            history.record(SLOW, Duration.ofSeconds(3));
+            history.save();
+
+            var loaded = new TestDurationHistory(file);
+            assertEquals(history.methods(), loaded.methods());
+            assertEquals(1, loaded.samples(FAST));
+            assertEquals(2, loaded.samples(SLOW));
+            assertEquals(history.percentile(SLOW, 0.5), loaded.percentile(SLOW, 0.5));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void adaptiveTimeouts() {
+        var history = new TestDurationHistory();
+        for (int i = 0; i < 5; i++) {
+            history.record(FAST, Duration.ofMillis(10));
+            history.record(SLOW, Duration.ofSeconds(4));
+            history.record(OTHER, Duration.ofMillis(500));
+        }
+        history.record(new TestMethod("FooTest", "rare"), Duration.ofMillis(10));
+
+        var timeouts = new AdaptiveTimeouts(0.99, 2.0,
+                Duration.ofMillis(200), Duration.ofSeconds(5), 5);
+        assertEquals(Map.of(
+                "FooTest.fast", Duration.ofMillis(200), // min bound
+                "FooTest.Nested.slow", Duration.ofSeconds(5)), // max bound
+                timeouts.repTimeouts(history, List.of("FooTest")));
+        var other = timeouts.repTimeout(history, OTHER).toMillis();
+        assertTrue(other >= 1000 && other <= 1200, String.valueOf(other));
+    }
+}
@@ -4,19 +4,23 @@ import ch.trick17.jtt.memcompile.ClassPath;
 import ch.trick17.jtt.memcompile.InMemClassFile;
 import ch.trick17.jtt.memcompile.InMemCompilation;
 import ch.trick17.jtt.memcompile.InMemSource;
+import ch.trick17.jtt.testrunner.RepetitionPolicy.Decision;
 import ch.trick17.jtt.testrunner.TestRunner.Result;
 import ch.trick17.jtt.testrunner.TestRunner.Task;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import static ch.trick17.jtt.memcompile.Compiler.JAVAC;
+import static java.lang.System.currentTimeMillis;
 import static java.util.Collections.emptyList;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -57,6 +61,27 @@ public class TestRunnerTest {
         assertFalse(result.testResults().get(0).passed());
     }
 
+    @Test
+    void runAll() throws IOException {
+        var tests = compile(SIMPLE_TESTS);
+        var tasks = new ArrayList<Task>();
+        for (int i = 1; i <= 6; i++) {
+            var testClass = i % 2 == 0 ? "PassingTest" : "FailingTest";
+            // tasks with different VM args end up in different batches
+            var encoding = i % 3 == 0 ? "ISO-8859-1" : "UTF8";
+            tasks.add(new Task(List.of(testClass),
+                    ClassPath.empty(), ClassPath.fromCurrent().withMemory(tests),
+                    1, Duration.ofSeconds(10), Duration.ofSeconds(10), null,
+                    List.of("-Dfile.encoding=" + encoding)));
+        }
+        var results = runner.runAll(tasks);
+        assertEquals(6, results.size());
+        for (int i = 1; i <= 6; i++) {
+            assertEquals(1, results.get(i - 1).testResults().size());
+            assertEquals(i % 2 == 0, results.get(i - 1).testResults().get(0).passed());
+        }
+    }
+
     @Test
     void testAsSandboxedCode() throws IOException {
         var tests = compile(SIMPLE_TESTS);
@@ -118,6 +143,27 @@ public class TestRunnerTest {
         }
     }
 
+    @Test
+    void multithreadingVmPool() throws IOException, InterruptedException, ExecutionException {
+        var tests = compile(SIMPLE_TESTS);
+
+        try (var pooledRunner = new TestRunner(emptyList(), 3)) {
+            var executor = Executors.newFixedThreadPool(10);
+            var results = new ArrayList<Future<Result>>();
+            for (int i = 1; i <= 10; i++) {
+                var testClass = i % 2 == 0 ? "PassingTest" : "FailingTest";
+                results.add(executor.submit(() -> pooledRunner.run(new Task(List.of(testClass),
+                        ClassPath.empty(), ClassPath.fromCurrent().withMemory(tests),
+                        1, Duration.ofSeconds(20), Duration.ofSeconds(20), null, emptyList()))));
+            }
+            for (int i = 1; i <= 10; i++) {
+                var result = results.get(i - 1).get();
+                assertEquals(1, result.testResults().size());
+                assertEquals(i % 2 == 0, result.testResults().get(0).passed());
+            }
+        }
+    }
+
     @Test
     void multithreadingVmArgs() throws IOException, InterruptedException, ExecutionException {
         var tests = compile(SIMPLE_TESTS);
@@ -137,6 +183,446 @@ public class TestRunnerTest {
         }
     }
 
+    @Test
+    void alternatingVmArgs() throws IOException {
+        var tests = compile("""
+                import org.junit.jupiter.api.Test;
+                import static org.junit.jupiter.api.Assertions.*;
+
+                class PropertyTest {
+                    @Test
+                    void one() {
+                        assertEquals("1", System.getProperty("test.prop"));
+                    }
+                    @Test
+                    void two() {
+                        assertEquals("2", System.getProperty("test.prop"));
+                    }
+                }
+                """);
+
+        try (var cachingRunner = new TestRunner(emptyList(), 1, 2)) {
+            for (int i = 0; i < 6; i++) {
+                var prop = i % 2 + 1;
+                var result = cachingRunner.run(new Task(List.of("PropertyTest"),
+                        ClassPath.empty(), ClassPath.fromCurrent().withMemory(tests),
+                        1, Duration.ofSeconds(5), Duration.ofSeconds(5), null,
+                        List.of("-Dtest.prop=" + prop)));
+                assertEquals(2, result.testResults().size());
+                assertEquals(prop == 1, result.testResults().get(0).passed());
+                assertEquals(prop == 2, result.testResults().get(1).passed());
+            }
+        }
+    }
+
+    @Test
+    void resumeAfterVmDeath() throws IOException {
+        var marker = Files.createTempFile("vm-death", ".txt");
+        var tests = compile("""
+                import org.junit.jupiter.api.Test;
+                import java.nio.file.*;
+                import static org.junit.jupiter.api.Assertions.*;
+
+                class VmDeathTest {
+                    static final Path MARKER = Path.of("%s");
+                    @Test
+                    void a() throws Exception {
+                        Files.writeString(MARKER, "a", StandardOpenOption.APPEND);
+                    }
+                    @Test
+                    void b() throws Exception {
+                        Files.writeString(MARKER, "b", StandardOpenOption.APPEND);
+                        if (Files.readString(MARKER).equals("ab")) {
+                            Runtime.getRuntime().halt(1); // kill VM the first time
+                        }
+                    }
+                    @Test
+                    void c() throws Exception {
+                        Files.writeString(MARKER, "c", StandardOpenOption.APPEND);
+                    }
+                }
+                """.formatted(marker.toString().replace("\\", "\\\\")));
+        try {
+            var streamed = new ArrayList<String>();
+            var result = runner.run(new Task("VmDeathTest",
+                    ClassPath.empty(), ClassPath.fromCurrent().withMemory(tests)),
+                    r -> streamed.add(r.method().name()));
+            assertEquals(List.of("a", "b", "c"), result.testResults().stream()
+                    .map(r -> r.method().name()).toList());
+            assertTrue(result.testResults().stream().allMatch(TestResult::passed));
+            assertEquals(List.of("a", "b", "c"), streamed);
+            // test a was not run again, only b (which killed the VM the first time)
+            assertEquals("abbc", Files.readString(marker));
+        } finally {
+            Files.delete(marker);
+        }
+    }
+
+    @Test
+    void parallelTests() throws IOException {
+        var marker = Files.createTempFile("parallel", ".txt");
+        var tests = compile("""
+                import org.junit.jupiter.api.Test;
+                import java.nio.file.*;
+                import static org.junit.jupiter.api.Assertions.*;
+                
+                class ParallelTest {
+                    static final Path MARKER = Path.of("%s");
+                    void run() throws Exception {
+                        Files.writeString(MARKER, "+", StandardOpenOption.APPEND);
+                        Thread.sleep(500);
+                        Files.writeString(MARKER, "-", StandardOpenOption.APPEND);
+                    }
+                    @Test void a() throws Exception { run(); }
+                    @Test void b() throws Exception { run(); }
+                    @Test void c() throws Exception { run(); fail(); }
+                    @Test void d() throws Exception { run(); }
+                    @Test void e() throws Exception { run(); }
+                    @Test void f() throws Exception { run(); }
+                }
+                """.formatted(marker.toString().replace("\\", "\\\\")));
+        try {
+            // make sure the forked VM has enough processors for parallel tests
+            var task = new Task(List.of("ParallelTest"),
+                    ClassPath.empty(), ClassPath.fromCurrent().withMemory(tests),
+                    1, Duration.ofSeconds(10), Duration.ofSeconds(10), null,
+                    List.of("-XX:ActiveProcessorCount=4"), 3, false, null, null);
+            var streamed = new ArrayList<String>();
+            var result = runner.run(task, r -> streamed.add(r.method().name()));
+            var names = List.of("a", "b", "c", "d", "e", "f");
+            assertEquals(names, result.testResults().stream()
+                    .map(r -> r.method().name()).toList());
+            assertEquals(names, streamed);
+            for (var r : result.testResults()) {
+                assertEquals(!r.method().name().equals("c"), r.passed());
+            }
+            assertTrue(Files.readString(marker).contains("++"));
+        } finally {
+            Files.delete(marker);
+        }
+    }
+
+    @Test
+    void concurrentRepetitions() throws IOException {
+        var markerDir = Files.createTempDirectory("reps");
+        var tests = compile("""
+                import org.junit.jupiter.api.Test;
+                import java.nio.file.*;
+                import static org.junit.jupiter.api.Assertions.*;
+                
+                class RepsTest {
+                    static final Path DIR = Path.of("%s");
+                    @Test
+                    void concurrent() throws Exception {
+                        Files.createTempFile(DIR, "start", "");
+                        Thread.sleep(500);
+                        try (var files = Files.list(DIR)) {
+                            // passes only if all repetitions started in the meantime
+                            assertEquals(3, files.count());
+                        }
+                    }
+                    @Test
+                    void infiniteLoop() {
+                        while (true) {}
+                    }
+                }
+                """.formatted(markerDir.toString().replace("\\", "\\\\")));
+        try {
+            // make sure the forked VM has enough processors for concurrent repetitions
+            var task = new Task(List.of("RepsTest"),
+                    ClassPath.fromMemory(tests), ClassPath.fromCurrent(),
+                    3, Duration.ofSeconds(2), Duration.ofSeconds(2), null,
+                    List.of("-XX:ActiveProcessorCount=4"), 1, true, null, null);
+            var result = runner.run(task);
+            var concurrent = result.testResults().get(0);
+            assertEquals("concurrent", concurrent.method().name());
+            assertEquals(3, concurrent.repsMade());
+            assertTrue(concurrent.passed());
+
+            // all repetitions were made within the test timeout
+            var infiniteLoop = result.testResults().get(1);
+            assertEquals("infiniteLoop", infiniteLoop.method().name());
+            assertEquals(3, infiniteLoop.repsMade());
+            assertFalse(infiniteLoop.incompleteReps());
+            assertTrue(infiniteLoop.timeout());
+        } finally {
+            try (var files = Files.list(markerDir)) {
+                for (var file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(markerDir);
+        }
+    }
+
+    @Test
+    void adaptiveRepetitions() throws IOException {
+        var tests = compile("""
+                import org.junit.jupiter.api.Test;
+                import static org.junit.jupiter.api.Assertions.*;
+                
+                class AdaptiveTest {
+                    @Test
+                    void stable() {
+                        assertEquals(2, 1 + 1);
+                    }
+                }
+                """);
+        var task = new Task(List.of("AdaptiveTest"),
+                ClassPath.fromMemory(tests), ClassPath.fromCurrent(),
+                7, Duration.ofSeconds(1), Duration.ofSeconds(10), null,
+                emptyList(), 1, false, RepetitionPolicy.ADAPTIVE, null);
+        var result = runner.run(task).testResults().get(0);
+        assertTrue(result.passed());
+        assertEquals(2, result.repsMade());
+        assertEquals(Decision.STABLE, result.repetitionDecision());
+
+        var fixed = new Task(List.of("AdaptiveTest"),
+                ClassPath.fromMemory(tests), ClassPath.fromCurrent(),
+                7, Duration.ofSeconds(1), Duration.ofSeconds(10), null,
+                emptyList(), 1, false, RepetitionPolicy.FIXED, null);
+        result = runner.run(fixed).testResults().get(0);
+        assertEquals(7, result.repsMade());
+        assertEquals(Decision.LIMIT_REACHED, result.repetitionDecision());
+
+        // tests that use nondeterministic APIs are repeated more often
+        var randomTests = compile("""
+                import org.junit.jupiter.api.Test;
+                import java.util.Random;
+                import static org.junit.jupiter.api.Assertions.*;
+                
+                class AdaptiveTest {
+                    @Test
+                    void random() {
+                        assertTrue(new Random().nextInt(10) < 10);
+                    }
+                }
+                """);
+        var random = new Task(List.of("AdaptiveTest"),
+                ClassPath.fromMemory(randomTests), ClassPath.fromCurrent(),
+                3, Duration.ofSeconds(1), Duration.ofSeconds(10), null,
+                emptyList(), 1, false, RepetitionPolicy.ADAPTIVE, null);
+        result = runner.run(random).testResults().get(0);
+        assertTrue(result.passed());
+        assertEquals(6, result.repsMade());
+        assertEquals(Decision.LIMIT_REACHED, result.repetitionDecision());
+    }
+
+    @Test
+    void noRepTimeout() throws IOException {
+        // a null repetition timeout must survive the (binary) codec
+        var tests = compile(SIMPLE_TESTS);
+        var task = new Task(List.of("PassingTest"),
+                ClassPath.fromMemory(tests), ClassPath.fromCurrent(),
+                2, null, Duration.ofSeconds(10), null, emptyList());
+        var result = runner.run(task);
+        assertEquals(1, result.testResults().size());
+        assertTrue(result.testResults().get(0).passed());
+        assertEquals(2, result.testResults().get(0).repsMade());
+    }
+
+    @Test
+    void jsonCodec() throws IOException {
+        var tests = compile(SIMPLE_TESTS);
+        System.setProperty("test-runner.jsonCodec", "");
+        try (var jsonRunner = new TestRunner()) {
+            for (var policy : List.of(RepetitionPolicy.FIXED, RepetitionPolicy.ADAPTIVE)) {
+                var task = new Task(List.of("PassingTest", "FailingTest"),
+                        ClassPath.fromMemory(tests), ClassPath.fromCurrent(),
+                        3, Duration.ofSeconds(1), Duration.ofSeconds(10), null,
+                        emptyList(), 1, false, policy, null);
+                var results = jsonRunner.run(task).testResults();
+                assertEquals(2, results.size());
+                var failing = results.get(0);
+                var passing = results.get(1);
+                assertEquals("FailingTest", failing.method().className());
+                assertFalse(failing.passed());
+                assertFalse(failing.exceptions().isEmpty());
+                assertTrue(passing.passed());
+                assertEquals(policy == RepetitionPolicy.FIXED ? 3 : 2, passing.repsMade());
+            }
+        } finally {
+            System.clearProperty("test-runner.jsonCodec");
+        }
+    }
+
+    @Test
+    void resourceUsage() throws IOException {
+        var tests = compile("""
+                import org.junit.jupiter.api.Test;
+                import static org.junit.jupiter.api.Assertions.*;
+                
+                class UsageTest {
+                    static byte[] data;
+                    @Test
+                    void allocate() {
+                        data = new byte[10_000_000];
+                    }
+                    @Test
+                    void infiniteLoop() {
+                        while (true) {}
+                    }
+                }
+                """);
+        var task = new Task(List.of("UsageTest"),
+                ClassPath.fromMemory(tests), ClassPath.fromCurrent(),
+                2, Duration.ofSeconds(1), Duration.ofSeconds(10), null, emptyList());
+        var result = runner.run(task);
+
+        var allocate = result.testResults().get(0);
+        assertEquals(2, allocate.repResourceUsage().size());
+        for (var usage : allocate.repResourceUsage()) {
+            assertTrue(usage.allocatedBytes() >= 10_000_000, String.valueOf(usage));
+            assertTrue(usage.cpuTime().isPositive(), String.valueOf(usage));
+            assertTrue(usage.wallTime().isPositive(), String.valueOf(usage));
+        }
+        assertEquals(ResourceUsage.total(allocate.repResourceUsage()), allocate.resourceUsage());
+
+        // only the wall time is known for repetitions that time out
+        var infiniteLoop = result.testResults().get(1);
+        assertEquals(2, infiniteLoop.repResourceUsage().size());
+        for (var usage : infiniteLoop.repResourceUsage()) {
+            assertTrue(usage.wallTime().compareTo(Duration.ofSeconds(1)) >= 0, String.valueOf(usage));
+            assertEquals(Duration.ZERO, usage.cpuTime());
+            assertEquals(0, usage.allocatedBytes());
+        }
+    }
+
+    @Test
+    void perMethodTimeouts() throws IOException {
+        var tests = compile("""
+                import org.junit.jupiter.api.Test;
+                
+                class LoopTest {
+                    @Test
+                    void infiniteLoop() {
+                        while (true) {}
+                    }
+                }
+                """);
+        var task = new Task(List.of("LoopTest"),
+                ClassPath.fromMemory(tests), ClassPath.fromCurrent(),
+                2, Duration.ofSeconds(30), Duration.ofSeconds(60), null, emptyList(),
+                1, false, null, Map.of("LoopTest.infiniteLoop", Duration.ofMillis(500)));
+        var start = currentTimeMillis();
+        var result = runner.run(task).testResults().get(0);
+        assertTrue(result.timeout());
+        assertEquals(2, result.repsMade());
+        assertTrue(currentTimeMillis() - start < 20_000);
+    }
+
+    @Test
+    void timeoutAnnotations() throws IOException {
+        var tests = compile("""
+                import ch.trick17.jtt.junitextensions.RepetitionTimeout;
+                import org.junit.jupiter.api.Test;
+                import org.junit.jupiter.api.Timeout;
+                import static java.util.concurrent.TimeUnit.MILLISECONDS;
+                
+                class TimeoutTest {
+                    @Test
+                    @Timeout(value = 100, unit = MILLISECONDS)
+                    void junitTimeout() {
+                        while (true) {}
+                    }
+                    @Test
+                    @Timeout(value = 100, unit = MILLISECONDS)
+                    void junitTimeoutSlow() throws InterruptedException {
+                        Thread.sleep(300);
+                    }
+                    @Test
+                    @RepetitionTimeout(value = 200, unit = MILLISECONDS)
+                    void repetitionTimeout() {
+                        while (true) {}
+                    }
+                }
+                """);
+        var task = new Task(List.of("TimeoutTest"),
+                ClassPath.fromMemory(tests), ClassPath.fromCurrent(),
+                2, Duration.ofSeconds(30), Duration.ofSeconds(60), null, emptyList());
+        var start = currentTimeMillis();
+        var results = runner.run(task).testResults();
+        assertTrue(currentTimeMillis() - start < 30_000);
+
+        // JUnit interrupts the test itself, the sandbox timeout is only a fallback
+        var junitTimeout = results.get(0);
+        assertEquals("junitTimeout", junitTimeout.method().name());
+        assertFalse(junitTimeout.passed());
+        assertEquals(2, junitTimeout.repsMade());
+
+        // slow, but terminating tests are reported by JUnit
+        var junitTimeoutSlow = results.get(1);
+        assertEquals("junitTimeoutSlow", junitTimeoutSlow.method().name());
+        assertFalse(junitTimeoutSlow.passed());
+        assertFalse(junitTimeoutSlow.timeout());
+        assertEquals("java.util.concurrent.TimeoutException",
+                junitTimeoutSlow.exceptions().get(0).className());
+
+        var repetitionTimeout = results.get(2);
+        assertEquals("repetitionTimeout", repetitionTimeout.method().name());
+        assertTrue(repetitionTimeout.timeout());
+        assertEquals(2, repetitionTimeout.repsMade());
+    }
+
+    @Test
+    void directInvocation() throws IOException {
+        var tests = compile("""
+                import org.junit.jupiter.api.*;
+                import org.junit.jupiter.params.ParameterizedTest;
+                import org.junit.jupiter.params.provider.ValueSource;
+                import static org.junit.jupiter.api.Assertions.*;
+                
+                class LifecycleTest {
+                    static String log = "";
+                    @BeforeAll static void beforeAll() { log += "beforeAll "; }
+                    @BeforeEach void beforeEach() { log += "beforeEach "; }
+                    @AfterEach void afterEach() { log += "afterEach "; }
+                    @Test
+                    void lifecycle() {
+                        assertEquals("beforeAll beforeEach ", log);
+                    }
+                    @Test
+                    void failing() {
+                        fail("direct");
+                    }
+                    @ParameterizedTest
+                    @ValueSource(ints = 1)
+                    void parameterized(int i) {
+                        fail("launcher");
+                    }
+                }
+                class BrokenSetupTest {
+                    @BeforeEach void beforeEach() { throw new IllegalStateException(); }
+                    @Test void test() {}
+                }
+                """);
+        var task = new Task(List.of("LifecycleTest", "BrokenSetupTest"),
+                ClassPath.fromMemory(tests), ClassPath.fromCurrent(),
+                2, Duration.ofSeconds(10), Duration.ofSeconds(10), null, emptyList());
+        var results = runner.run(task).testResults();
+        assertEquals(List.of("test", "failing", "lifecycle", "parameterized(int)"),
+                results.stream().map(r -> r.method().name()).toList());
+
+        // static state is re-initialized for each repetition
+        assertTrue(results.get(2).passed(), results.get(2).exceptions().toString());
+        assertEquals(2, results.get(2).repsMade());
+
+        // the fast path does not involve the JUnit Platform, but
+        // parameterized tests are still run by the launcher
+        var direct = results.get(1).exceptions().get(0);
+        assertEquals("direct", direct.message());
+        assertTrue(direct.stackTrace().stream()
+                .noneMatch(e -> e.getClassName().startsWith("org.junit.platform")));
+        var launcher = results.get(3).exceptions().get(0);
+        assertEquals("launcher", launcher.message());
+        assertTrue(launcher.stackTrace().stream()
+                .anyMatch(e -> e.getClassName().startsWith("org.junit.platform")));
+
+        assertFalse(results.get(0).passed());
+        assertEquals("java.lang.IllegalStateException",
+                results.get(0).exceptions().get(0).className());
+    }
+
     private static List<InMemClassFile> compile(String tests) throws IOException {
         return InMemCompilation.compile(JAVAC,
                 List.of(InMemSource.fromString(tests)),
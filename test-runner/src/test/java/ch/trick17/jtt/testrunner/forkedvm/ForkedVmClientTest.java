@@ -4,11 +4,21 @@ import ch.trick17.jtt.testrunner.TestRunnerJacksonModule;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.util.Collections.emptyList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ForkedVmClientTest {
 
@@ -55,6 +65,125 @@ public class ForkedVmClientTest {
         }
     }
 
+    @Test
+    void jsonCodec() throws IOException {
+        System.setProperty("test-runner.jsonCodec", "");
+        try (var client = new ForkedVmClient(emptyList(), List.of(TestRunnerJacksonModule.class))) {
+            var person = new Person();
+            person.name = "Michael";
+            var result = client.runInForkedVm(TestCode.class, "greeting3",
+                    List.of(person), String.class);
+            assertEquals("Hello, Michael!", result);
+
+            var e = assertThrows(IllegalArgumentException.class, () -> {
+                client.runInForkedVm(TestCode.class, "greeting4",
+                        List.of("not a number"), String.class);
+            });
+            assertEquals("'number' is not an int", e.getMessage());
+        } finally {
+            System.clearProperty("test-runner.jsonCodec");
+        }
+    }
+
+    @Test
+    void tcpTransport() throws IOException {
+        System.setProperty("test-runner.tcpTransport", "");
+        try (var client = new ForkedVmClient()) {
+            var result = client.runInForkedVm(TestCode.class, "greeting2",
+                    List.of("Michael", 3), String.class);
+            assertEquals("Hello, Michael!!!", result);
+        } finally {
+            System.clearProperty("test-runner.tcpTransport");
+        }
+    }
+
+    @Test
+    void sharedMemory() throws IOException {
+        System.setProperty("test-runner.sharedMemory", "");
+        try (var client = new ForkedVmClient()) {
+            for (var size : List.of(1000, 1_000_000, 50_000_000)) {
+                var bytes = new byte[size];
+                new Random(size).nextBytes(bytes);
+                var result = client.runInForkedVm(TestCode.class, "echo",
+                        List.of(bytes), byte[].class);
+                assertArrayEquals(bytes, result);
+            }
+        } finally {
+            System.clearProperty("test-runner.sharedMemory");
+        }
+    }
+
+    @Test
+    void concurrentCalls() throws IOException, InterruptedException, ExecutionException {
+        try (var client = new ForkedVmClient()) {
+            client.runInForkedVm(TestCode.class, "greeting1", emptyList(), String.class); // warm-up
+
+            var executor = Executors.newFixedThreadPool(10);
+            var slow = executor.submit(() -> client.runInForkedVm(TestCode.class,
+                    "slowGreeting", List.of(2000), String.class));
+            var fast = new ArrayList<Future<String>>();
+            for (int i = 1; i <= 9; i++) {
+                var marks = i;
+                fast.add(executor.submit(() -> client.runInForkedVm(TestCode.class,
+                        "greeting2", List.of("Michael", marks), String.class)));
+            }
+            for (int i = 1; i <= 9; i++) {
+                assertEquals("Hello, Michael" + "!".repeat(i), fast.get(i - 1).get());
+            }
+            // responses for the fast calls must not wait for the slow one
+            assertFalse(slow.isDone());
+            assertEquals("Hello, World!", slow.get());
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void standbyVm() throws IOException {
+        try (var pool = new ForkedVmPool(1)) {
+            var first = pool.runInForkedVm(TestCode.class, "pid", emptyList(), Long.class);
+            assertThrows(IOException.class, () -> {
+                pool.runInForkedVm(TestCode.class, "halt", emptyList(), Void.class);
+            });
+            // the VM that died is replaced, and a standby VM is started
+            var second = pool.runInForkedVm(TestCode.class, "pid", emptyList(), Long.class);
+            assertNotEquals(first, second);
+            assertThrows(IOException.class, () -> {
+                pool.runInForkedVm(TestCode.class, "halt", emptyList(), Void.class);
+            });
+            // the next replacement is the standby VM
+            var third = pool.runInForkedVm(TestCode.class, "pid", emptyList(), Long.class);
+            assertNotEquals(first, third);
+            assertNotEquals(second, third);
+        }
+    }
+
+    @Test
+    void recycling() throws IOException {
+        var policy = RecyclePolicy.NEVER.withMaxCalls(2);
+        try (var pool = new ForkedVmPool(1, emptyList(), emptyList(), emptyList(), policy)) {
+            var first = pool.runInForkedVm(TestCode.class, "pid", emptyList(), Long.class);
+            var second = pool.runInForkedVm(TestCode.class, "pid", emptyList(), Long.class);
+            assertEquals(first, second);
+            // VM has handled 2 calls, so the next call goes to a new VM
+            var third = pool.runInForkedVm(TestCode.class, "pid", emptyList(), Long.class);
+            assertNotEquals(first, third);
+        }
+    }
+
+    @Test
+    void vmStats() throws IOException {
+        try (var client = new ForkedVmClient(emptyList(), emptyList())) {
+            assertNull(client.getVmStats());
+            client.runInForkedVm(TestCode.class, "greeting1", emptyList(), String.class);
+            client.runInForkedVm(TestCode.class, "greeting1", emptyList(), String.class);
+            var stats = client.getVmStats();
+            assertEquals(2, stats.calls());
+            assertTrue(stats.heapUsed() > 0);
+            assertTrue(stats.metaspaceUsed() > 0);
+            assertTrue(stats.loadedClasses() > 0);
+        }
+    }
+
     public static class TestCode {
         public static String greeting1() {
             return "Hello, World!";
@@ -68,6 +197,23 @@ public class ForkedVmClientTest {
             return "Hello, " + person.name + "!";
         }
 
+        public static String slowGreeting(int millis) throws InterruptedException {
+            Thread.sleep(millis);
+            return "Hello, World!";
+        }
+
+        public static long pid() {
+            return ProcessHandle.current().pid();
+        }
+
+        public static void halt() {
+            Runtime.getRuntime().halt(1);
+        }
+
+        public static byte[] echo(byte[] bytes) {
+            return bytes;
+        }
+
         public static String greeting4(String number) {
             try {
                 return "Hello".repeat(Integer.parseInt(number));
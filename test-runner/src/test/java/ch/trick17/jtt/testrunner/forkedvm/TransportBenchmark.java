@@ -0,0 +1,63 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.IOException;
+import java.util.List;
+
+import static java.lang.System.nanoTime;
+import static java.util.Collections.emptyList;
+
+/**
+ * Compares the round-trip time of calls to a forked VM with payloads from
+ * 1 KB to 50 MB, once with all payloads going through the socket and once
+ * with large payloads going through a {@link SharedMemoryRing}. Not a test;
+ * run the main method manually.
+ */
+public class TransportBenchmark {
+
+    private static final int[] SIZES = {1_000, 10_000, 100_000, 1_000_000, 10_000_000, 50_000_000};
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        System.out.printf("%12s %14s %14s%n", "payload", "socket (ms)", "shm (ms)");
+        for (var size : SIZES) {
+            var socket = measure(size, false);
+            var shm = measure(size, true);
+            System.out.printf("%12d %14.3f %14.3f%n", size, socket, shm);
+        }
+    }
+
+    private static double measure(int size, boolean sharedMemory) throws IOException {
+        if (sharedMemory) {
+            System.setProperty("test-runner.sharedMemory", "");
+        }
+        try (var client = new ForkedVmClient(emptyList(), emptyList())) {
+            var args = List.of(new byte[size]);
+            run(client, args, WARMUP_NANOS);
+            return run(client, args, MEASURE_NANOS);
+        } finally {
+            System.clearProperty("test-runner.sharedMemory");
+        }
+    }
+
+    /**
+     * Runs the echo call repeatedly for roughly the given time and returns
+     * the average time per call in milliseconds.
+     */
+    private static double run(ForkedVmClient client, List<byte[]> args,
+                              long nanos) throws IOException {
+        var calls = 0;
+        var start = nanoTime();
+        long elapsed;
+        do {
+            client.runInForkedVm(TransportBenchmark.class, "echo", args, byte[].class);
+            calls++;
+            elapsed = nanoTime() - start;
+        } while (elapsed < nanos);
+        return elapsed / 1e6 / calls;
+    }
+
+    public static byte[] echo(byte[] bytes) {
+        return bytes;
+    }
+}
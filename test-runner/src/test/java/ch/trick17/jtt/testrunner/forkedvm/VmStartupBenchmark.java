@@ -0,0 +1,58 @@
+package ch.trick17.jtt.testrunner.forkedvm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static java.lang.System.nanoTime;
+import static java.util.Collections.emptyList;
+
+/**
+ * Compares the time from starting a forked VM to receiving the result of the
+ * first call, once without and once with an AppCDS archive (see
+ * {@link AppCds}). Not a test; run the main method manually. Since AppCDS
+ * does not support directories on the class path, the benchmark must be run
+ * with a class path that consists of JAR files only (e.g., the test-runner
+ * and test JARs plus dependencies).
+ */
+public class VmStartupBenchmark {
+
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws IOException {
+        var plain = measure();
+
+        var dir = Files.createTempDirectory("test-runner-cds");
+        System.setProperty("test-runner.appCds", dir.toString());
+        if (AppCds.forVmArgs(emptyList()) == null) {
+            System.out.println("AppCDS not supported with this class path");
+            return;
+        }
+        try (var client = new ForkedVmClient()) { // training run
+            client.runInForkedVm(VmStartupBenchmark.class, "answer", emptyList(), Integer.class);
+        }
+        var cds = measure();
+
+        System.out.printf("%14s %14s%n", "plain (ms)", "AppCDS (ms)");
+        System.out.printf("%14.1f %14.1f%n", plain, cds);
+    }
+
+    /**
+     * Starts a VM and calls a method in it repeatedly and returns the average
+     * time until the result is available, in milliseconds.
+     */
+    private static double measure() throws IOException {
+        var total = 0L;
+        for (int i = 0; i < RUNS; i++) {
+            var start = nanoTime();
+            try (var client = new ForkedVmClient()) {
+                client.runInForkedVm(VmStartupBenchmark.class, "answer", emptyList(), Integer.class);
+                total += nanoTime() - start;
+            }
+        }
+        return total / 1e6 / RUNS;
+    }
+
+    public static int answer() {
+        return 42;
+    }
+}